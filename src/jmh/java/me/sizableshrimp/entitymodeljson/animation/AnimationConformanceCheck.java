@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.animation;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.math.Vector3f;
+import com.mojang.serialization.JsonOps;
+import me.sizableshrimp.entitymodeljson.EntityModelJsonConfig;
+import net.minecraft.client.animation.AnimationChannel;
+import net.minecraft.client.animation.AnimationDefinition;
+import net.minecraft.client.animation.Keyframe;
+import net.minecraft.client.animation.KeyframeAnimations;
+import net.minecraft.client.model.HierarchicalModel;
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.Mth;
+import net.minecraft.world.entity.Entity;
+import net.minecraftforge.event.TickEvent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+/**
+ * Samples every animation in the given folders at many times through both {@link KeyframeAnimations#animate} and {@link CompiledAnimation},
+ * and fails if the poses of any bone differ.
+ * <p>
+ * Live sampling and batched sampling must match vanilla up to float rounding.
+ * Baked poses must match the linear interpolation of vanilla poses at the baked times,
+ * and animations reduced by {@link KeyframeReducer} must stay within the reduction tolerance of the original vanilla poses.
+ * Animations with quantized timestamps must keep strictly increasing timestamps which do not end after the animation.
+ * The only accepted difference is the one documented on {@link CompiledAnimation}, where vanilla poses a bone with NaN.
+ * <p>
+ * Lives in the animation package to reach the package-private baking and pose batching entry points.
+ */
+public class AnimationConformanceCheck {
+    private static final float EPSILON = 1.0E-5F;
+    private static final int TIME_STEP_MILLIS = 3;
+    private static final float BAKE_SAMPLE_RATE = 30;
+    private static final float[] REDUCE_TOLERANCES = {0.001F, 0.01F};
+    private static final float[] TIMESTAMP_STEPS = {0.05F, 0.25F};
+    private final List<String> differences = new ArrayList<>();
+    private int comparedPoses;
+    private int nanPoses;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0)
+            throw new IllegalArgumentException("Usage: AnimationConformanceCheck <animation folder>...");
+
+        // Pose batching reads its settings from the config, which is otherwise only loaded by Forge; the defaults only share exactly equal times
+        EntityModelJsonConfig.CLIENT_SPEC.acceptConfig(CommentedConfig.inMemory());
+
+        Map<ResourceLocation, AnimationDefinition> definitions = new LinkedHashMap<>();
+        for (String arg : args) {
+            definitions.putAll(loadDefinitions(Path.of(arg)));
+        }
+
+        AnimationConformanceCheck check = new AnimationConformanceCheck();
+        definitions.forEach(check::check);
+
+        System.out.printf("Compared %d poses of %d entity animations sampled by vanilla and compiled animations, %d differences, %d vanilla NaN poses held%n",
+                check.comparedPoses, definitions.size(), check.differences.size(), check.nanPoses);
+        if (!check.differences.isEmpty()) {
+            check.differences.forEach(System.err::println);
+            System.err.println("CompiledAnimation does not conform to KeyframeAnimations#animate");
+            System.exit(1);
+        }
+    }
+
+    private static Map<ResourceLocation, AnimationDefinition> loadDefinitions(Path folder) throws IOException {
+        Map<ResourceLocation, AnimationDefinition> definitions = new LinkedHashMap<>();
+        try (Stream<Path> paths = Files.walk(folder)) {
+            for (Path path : paths.filter(path -> path.toString().endsWith(".json")).sorted().toList()) {
+                String relativePath = folder.relativize(path).toString().replace('\\', '/');
+                ResourceLocation id = new ResourceLocation("check", relativePath.substring(0, relativePath.length() - ".json".length()));
+                JsonElement json;
+                try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                    json = JsonParser.parseReader(reader);
+                }
+                List<String> errors = new ArrayList<>();
+                AnimationDefinition definition = EntityAnimationCodecHolder.ANIMATION_DEFINITION_CODEC.parse(JsonOps.INSTANCE, json)
+                        .resultOrPartial(errors::add)
+                        .orElse(null);
+                if (definition == null || !errors.isEmpty())
+                    throw new IllegalStateException("Couldn't decode entity animation " + path + " - " + errors);
+                definitions.put(id, definition);
+            }
+        }
+        return definitions;
+    }
+
+    private void check(ResourceLocation id, AnimationDefinition definition) {
+        long[] times = getSampleTimes(definition);
+
+        // Live sampling
+        setPoseBatching(false);
+        compareAll(id + " (live)", definition, CompiledAnimation.compile(id, definition), times, 1.0F, 0);
+
+        // Batched sampling, where the second model reuses the pose sampled for the first one
+        setPoseBatching(true);
+        CompiledAnimation batched = CompiledAnimation.compile(id, definition);
+        BoneModel vanillaModel = new BoneModel(definition);
+        BoneModel firstModel = new BoneModel(definition);
+        BoneModel secondModel = new BoneModel(definition);
+        BoundAnimation first = batched.bind(firstModel);
+        BoundAnimation second = batched.bind(secondModel);
+        for (long time : times) {
+            PoseBatching.onRenderTick(new TickEvent.RenderTickEvent(TickEvent.Phase.START, 0));
+            vanillaModel.reset();
+            firstModel.reset();
+            secondModel.reset();
+            KeyframeAnimations.animate(vanillaModel, definition, time, 0.5F, new Vector3f());
+            first.animate(time, 0.5F);
+            second.animate(time, 0.5F);
+            this.compare(id + " (batched) at " + time + " ms", vanillaModel, firstModel, 0);
+            this.compare(id + " (batched, shared) at " + time + " ms", vanillaModel, secondModel, 0);
+        }
+        setPoseBatching(false);
+
+        // Baked poses
+        CompiledAnimation baked = CompiledAnimation.compile(id, definition);
+        if (definition.looping() && definition.lengthInSeconds() > 0 && !baked.usesCustomInterpolation() && baked.bake(BAKE_SAMPLE_RATE, Integer.MAX_VALUE))
+            this.compareBaked(id + " (baked)", definition, baked, times);
+
+        // Reduced keyframes, compared against the original animation
+        for (float tolerance : REDUCE_TOLERANCES) {
+            AnimationDefinition reduced = KeyframeReducer.reduce(definition, tolerance, 0, 0).definition();
+            this.compareAll(id + " (reduced within " + tolerance + ")", definition, CompiledAnimation.compile(id, reduced), times, 1.0F, tolerance);
+        }
+
+        // Quantized timestamps, which change the timing and so are only checked for valid keyframes
+        for (float step : TIMESTAMP_STEPS) {
+            AnimationDefinition quantized = KeyframeReducer.reduce(definition, REDUCE_TOLERANCES[0], step, 0).definition();
+            this.checkTimestamps(id + " (timestamps quantized to " + step + ")", definition, quantized);
+        }
+    }
+
+    private void checkTimestamps(String name, AnimationDefinition definition, AnimationDefinition quantized) {
+        for (var entry : definition.boneAnimations().entrySet()) {
+            List<AnimationChannel> quantizedChannels = quantized.boneAnimations().get(entry.getKey());
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                Keyframe[] original = entry.getValue().get(i).keyframes();
+                Keyframe[] keyframes = quantizedChannels.get(i).keyframes();
+                if (original.length == 0)
+                    continue;
+                String channel = name + ": bone " + entry.getKey() + " channel " + i;
+
+                for (int j = 1; j < keyframes.length; j++) {
+                    if (keyframes[j].timestamp() <= keyframes[j - 1].timestamp())
+                        this.differences.add(channel + " has keyframe " + j + " at " + keyframes[j].timestamp() + " after " + keyframes[j - 1].timestamp());
+                }
+                // Keyframes authored after the end are left there
+                float end = Math.max(definition.lengthInSeconds(), original[original.length - 1].timestamp());
+                if (keyframes[keyframes.length - 1].timestamp() > end)
+                    this.differences.add(channel + " ends at " + keyframes[keyframes.length - 1].timestamp() + " after the animation ends at " + end);
+            }
+        }
+    }
+
+    /**
+     * Samples every few milliseconds up to twice the length, so that looping animations wrap around, and exactly at every keyframe.
+     */
+    private static long[] getSampleTimes(AnimationDefinition definition) {
+        long lengthMillis = (long) Math.ceil(definition.lengthInSeconds() * 1000);
+        TreeSet<Long> times = new TreeSet<>();
+        for (long time = 0; time <= 2 * lengthMillis + 250; time += TIME_STEP_MILLIS) {
+            times.add(time);
+        }
+        for (List<AnimationChannel> channels : definition.boneAnimations().values()) {
+            for (AnimationChannel channel : channels) {
+                for (Keyframe keyframe : channel.keyframes()) {
+                    times.add((long) Math.floor(keyframe.timestamp() * 1000));
+                    times.add((long) Math.ceil(keyframe.timestamp() * 1000));
+                }
+            }
+        }
+        return times.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private void compareAll(String name, AnimationDefinition definition, CompiledAnimation animation, long[] times, float scale, float tolerance) {
+        BoneModel vanillaModel = new BoneModel(definition);
+        BoneModel compiledModel = new BoneModel(definition);
+        BoundAnimation bound = animation.bind(compiledModel);
+        for (long time : times) {
+            vanillaModel.reset();
+            compiledModel.reset();
+            KeyframeAnimations.animate(vanillaModel, definition, time, scale, new Vector3f());
+            bound.animate(time, scale);
+            this.compare(name + " at " + time + " ms", vanillaModel, compiledModel, tolerance);
+        }
+    }
+
+    /**
+     * Builds the expected pose of a baked animation from vanilla samples at the two baked times around each sample time.
+     */
+    private void compareBaked(String name, AnimationDefinition definition, CompiledAnimation animation, long[] times) {
+        float length = definition.lengthInSeconds();
+        int intervals = Math.max(1, Mth.ceil(length * BAKE_SAMPLE_RATE));
+        BoneModel expectedModel = new BoneModel(definition);
+        BoneModel bakedModel = new BoneModel(definition);
+        BoundAnimation bound = animation.bind(bakedModel);
+        Vector3f from = new Vector3f();
+        Vector3f to = new Vector3f();
+
+        for (long time : times) {
+            float position = ((float) time / 1000.0F) % length / length * intervals;
+            int frame = Math.max(0, Math.min(Mth.floor(position), intervals - 1));
+            float delta = position - frame;
+
+            expectedModel.reset();
+            for (Map.Entry<String, List<AnimationChannel>> entry : definition.boneAnimations().entrySet()) {
+                ModelPart part = expectedModel.bones.get(entry.getKey());
+                for (AnimationChannel channel : entry.getValue()) {
+                    sampleVanilla(channel, length * frame / intervals, from);
+                    sampleVanilla(channel, length * (frame + 1) / intervals, to);
+                    channel.target().apply(part, new Vector3f(Mth.lerp(delta, from.x(), to.x()), Mth.lerp(delta, from.y(), to.y()), Mth.lerp(delta, from.z(), to.z())));
+                }
+            }
+
+            bakedModel.reset();
+            bound.animate(time, 1.0F);
+            this.compare(name + " at " + time + " ms", expectedModel, bakedModel, 0);
+        }
+    }
+
+    /**
+     * Samples one channel at any time in seconds exactly like {@link KeyframeAnimations#animate}, except for holding the earlier keyframe where vanilla produces NaN.
+     */
+    private static void sampleVanilla(AnimationChannel channel, float elapsedSeconds, Vector3f dest) {
+        Keyframe[] keyframes = channel.keyframes();
+        int current = Math.max(0, Mth.binarySearch(0, keyframes.length, idx -> elapsedSeconds <= keyframes[idx].timestamp()) - 1);
+        int next = Math.min(keyframes.length - 1, current + 1);
+        float elapsed = elapsedSeconds - keyframes[current].timestamp();
+        float delta = Mth.clamp(elapsed / (keyframes[next].timestamp() - keyframes[current].timestamp()), 0.0F, 1.0F);
+        keyframes[next].interpolation().apply(dest, Float.isNaN(delta) ? 0.0F : delta, keyframes, current, next, 1.0F);
+    }
+
+    private void compare(String name, BoneModel expected, BoneModel actual, float tolerance) {
+        this.comparedPoses++;
+        for (Map.Entry<String, ModelPart> entry : expected.bones.entrySet()) {
+            float[] expectedPose = getPose(entry.getValue());
+            float[] actualPose = getPose(actual.bones.get(entry.getKey()));
+            // Channels of the same bone add up, and so do their errors
+            float boneTolerance = tolerance * expected.channelCounts.get(entry.getKey());
+            for (int i = 0; i < expectedPose.length; i++) {
+                if (Float.isNaN(expectedPose[i]) && !Float.isNaN(actualPose[i])) {
+                    this.nanPoses++;
+                    break;
+                }
+                float error = Math.abs(expectedPose[i] - actualPose[i]);
+                if (!(error <= boneTolerance + EPSILON * Math.max(1.0F, Math.abs(expectedPose[i])))) {
+                    this.differences.add(name + ": bone " + entry.getKey() + " is posed " + describe(actualPose) + " instead of " + describe(expectedPose));
+                    break;
+                }
+            }
+        }
+    }
+
+    private static float[] getPose(ModelPart part) {
+        return new float[] {part.x, part.y, part.z, part.xRot, part.yRot, part.zRot, part.xScale, part.yScale, part.zScale};
+    }
+
+    private static String describe(float[] pose) {
+        return String.format("[pos %s %s %s, rot %s %s %s, scale %s %s %s]", pose[0], pose[1], pose[2], pose[3], pose[4], pose[5], pose[6], pose[7], pose[8]);
+    }
+
+    private static void setPoseBatching(boolean enabled) {
+        EntityModelJsonConfig.CLIENT.batchPoses.set(enabled);
+        PoseBatching.onRenderTick(new TickEvent.RenderTickEvent(TickEvent.Phase.START, 0));
+    }
+
+    /**
+     * A model with one top-level part for each bone of an animation.
+     */
+    private static class BoneModel extends HierarchicalModel<Entity> {
+        private final ModelPart root;
+        private final Map<String, ModelPart> bones = new HashMap<>();
+        private final Map<String, Integer> channelCounts = new HashMap<>();
+
+        BoneModel(AnimationDefinition definition) {
+            definition.boneAnimations().forEach((bone, channels) -> {
+                this.bones.put(bone, new ModelPart(List.of(), Map.of()));
+                this.channelCounts.put(bone, channels.size());
+            });
+            this.root = new ModelPart(List.of(), Map.copyOf(this.bones));
+        }
+
+        void reset() {
+            for (ModelPart part : this.bones.values()) {
+                part.x = part.y = part.z = 0;
+                part.xRot = part.yRot = part.zRot = 0;
+                part.xScale = part.yScale = part.zScale = 1;
+            }
+        }
+
+        @Override
+        public ModelPart root() {
+            return this.root;
+        }
+
+        @Override
+        public void setupAnim(Entity entity, float limbSwing, float limbSwingAmount, float ageInTicks, float netHeadYaw, float headPitch) {}
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.mojang.blaze3d.vertex.PoseStack;
+import it.unimi.dsi.fastutil.objects.Object2ObjectArrayMap;
+import me.sizableshrimp.entitymodeljson.BakedGeometryCache;
+import me.sizableshrimp.entitymodeljson.InheritingLayerDefinition;
+import me.sizableshrimp.entitymodeljson.SafeModelPart;
+import me.sizableshrimp.entitymodeljson.SafePartDefinition;
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Bakes the layers of the corpus with the most cubes, both with an empty {@link BakedGeometryCache} and with one that already holds their geometry.
+ * <p>
+ * {@link #bakeStreamBaseline(Blackhole)} bakes the same layers with the previous stream and {@code Collectors.toMap} implementation of
+ * {@link SafePartDefinition#bake(int, int)}, to compare against the presized loop of {@link #bakeWarm(Blackhole)}.
+ * Both share the warm geometry cache, so only building the part tree differs. The setup checks that both produce identical trees.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BakeBenchmark {
+    @Param({"8"})
+    private int layerCount;
+
+    private List<LayerDefinition> layerDefs;
+
+    @Setup
+    public void setup() throws IOException {
+        this.layerDefs = BenchmarkCorpus.loadLayerDefinitions().values().stream()
+                .sorted(Comparator.comparingInt((LayerDefinition layerDef) -> BenchmarkCorpus.countCubes(layerDef.mesh.getRoot())).reversed())
+                .limit(this.layerCount)
+                .toList();
+
+        for (LayerDefinition layerDef : this.layerDefs) {
+            List<String> loop = describe(layerDef.bakeRoot());
+            List<String> stream = describe(bakeWithStream(layerDef));
+            if (!loop.equals(stream))
+                throw new IllegalStateException("Baking with a loop and with a stream produced different trees:\n" + loop + "\n" + stream);
+        }
+    }
+
+    @Benchmark
+    public void bakeCold(Blackhole blackhole) {
+        BakedGeometryCache.clear();
+        for (LayerDefinition layerDef : this.layerDefs) {
+            blackhole.consume(layerDef.bakeRoot());
+        }
+    }
+
+    @Benchmark
+    public void bakeWarm(Blackhole blackhole) {
+        for (LayerDefinition layerDef : this.layerDefs) {
+            blackhole.consume(layerDef.bakeRoot());
+        }
+    }
+
+    @Benchmark
+    public void bakeStreamBaseline(Blackhole blackhole) {
+        for (LayerDefinition layerDef : this.layerDefs) {
+            blackhole.consume(bakeWithStream(layerDef));
+        }
+    }
+
+    private static ModelPart bakeWithStream(LayerDefinition layerDef) {
+        // The material of an inheriting layer definition is only available through its accessor
+        MaterialDefinition material = layerDef instanceof InheritingLayerDefinition inheritingLayerDef ? inheritingLayerDef.getMaterial() : layerDef.material;
+        if (material == null)
+            material = InheritingLayerDefinition.DEFAULT_MATERIAL;
+        return bakeWithStream(layerDef.mesh.getRoot(), material.xTexSize, material.yTexSize);
+    }
+
+    /**
+     * The implementation of {@link SafePartDefinition#bake(int, int)} before it used a presized loop, applied to every part of the tree.
+     */
+    private static ModelPart bakeWithStream(PartDefinition partDef, int texWidth, int texHeight) {
+        Object2ObjectArrayMap<String, ModelPart> children = partDef.children.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> bakeWithStream(e.getValue(), texWidth, texHeight), (firstPart, secondPart) -> firstPart, Object2ObjectArrayMap::new));
+        List<ModelPart.Cube> cubes = BakedGeometryCache.getCubes(partDef, texWidth, texHeight);
+
+        ModelPart modelPart = partDef instanceof SafePartDefinition ? new SafeModelPart(cubes, children) : new ModelPart(cubes, children);
+        modelPart.setInitialPose(partDef.partPose);
+        modelPart.loadPose(partDef.partPose);
+        return modelPart;
+    }
+
+    /**
+     * Describes the type and pose of every part in tree order, and the path, index, and bounds of every cube.
+     */
+    private static List<String> describe(ModelPart root) {
+        List<String> description = new ArrayList<>();
+        root.getAllParts().forEach(part -> {
+            PartPose pose = part.storePose();
+            description.add(part.getClass().getSimpleName() + ' ' + pose.x + ' ' + pose.y + ' ' + pose.z + ' ' + pose.xRot + ' ' + pose.yRot + ' ' + pose.zRot);
+        });
+        root.visit(new PoseStack(), (pose, path, index, cube) -> description.add(path + '#' + index + ' ' + cube.minX + ' ' + cube.minY + ' ' + cube.minZ
+                + ' ' + cube.maxX + ' ' + cube.maxY + ' ' + cube.maxZ));
+        return description;
+    }
+}
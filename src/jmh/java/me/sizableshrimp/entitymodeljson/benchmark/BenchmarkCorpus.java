@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import me.sizableshrimp.entitymodeljson.LayerDefinitionReader;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import net.minecraft.resources.ResourceLocation;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Loads the entity model corpus used by the benchmarks.
+ * <p>
+ * The corpus folder is read from the {@value #CORPUS_PROPERTY} system property and defaults to {@code vanilla_layers}.
+ * It uses the same layout as exported models without a namespace, which is {@code <layer>/<model>.json}.
+ */
+public class BenchmarkCorpus {
+    public static final String CORPUS_PROPERTY = "entitymodeljson.corpus";
+
+    public static Path getCorpusPath() {
+        return Path.of(System.getProperty(CORPUS_PROPERTY, "vanilla_layers"));
+    }
+
+    public static Map<ModelLayerLocation, byte[]> loadFiles() throws IOException {
+        Path corpusPath = getCorpusPath();
+        Map<ModelLayerLocation, byte[]> files = new LinkedHashMap<>();
+
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(corpusPath)) {
+            paths = stream.filter(path -> path.toString().endsWith(".json")).sorted().toList();
+        }
+        if (paths.isEmpty())
+            throw new IllegalStateException("Benchmark corpus " + corpusPath.toAbsolutePath() + " does not contain any entity models");
+
+        for (Path path : paths) {
+            Path relativePath = corpusPath.relativize(path);
+            String layer = relativePath.getName(0).toString();
+            String model = relativePath.subpath(1, relativePath.getNameCount()).toString().replace('\\', '/');
+            model = model.substring(0, model.length() - ".json".length());
+            files.put(new ModelLayerLocation(new ResourceLocation(model), layer), Files.readAllBytes(path));
+        }
+
+        return files;
+    }
+
+    public static Map<ModelLayerLocation, LayerDefinition> loadLayerDefinitions() throws IOException {
+        Map<ModelLayerLocation, LayerDefinition> layerDefs = new LinkedHashMap<>();
+        for (var entry : loadFiles().entrySet()) {
+            try (Reader reader = openReader(entry.getValue())) {
+                layerDefs.put(entry.getKey(), LayerDefinitionReader.read(reader));
+            }
+        }
+        return layerDefs;
+    }
+
+    public static Reader openReader(byte[] bytes) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    public static int countCubes(PartDefinition partDef) {
+        int count = partDef.cubes.size();
+        for (PartDefinition child : partDef.children.values()) {
+            count += countCubes(child);
+        }
+        return count;
+    }
+}
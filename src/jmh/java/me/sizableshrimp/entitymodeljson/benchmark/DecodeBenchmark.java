@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.serialization.JsonOps;
+import me.sizableshrimp.entitymodeljson.EntityModelCodecHolder;
+import me.sizableshrimp.entitymodeljson.LayerDefinitionReader;
+import me.sizableshrimp.entitymodeljson.LayerDefinitionSerializer;
+import me.sizableshrimp.entitymodeljson.ModelInterner;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes the whole corpus with the codec, the streaming reader, and the binary model cache format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+    private List<byte[]> files;
+    private List<byte[]> serialized;
+
+    @Setup
+    public void setup() throws IOException {
+        this.files = new ArrayList<>(BenchmarkCorpus.loadFiles().values());
+        this.serialized = new ArrayList<>(this.files.size());
+        for (byte[] bytes : this.files) {
+            LayerDefinition layerDef;
+            try (Reader reader = BenchmarkCorpus.openReader(bytes)) {
+                layerDef = LayerDefinitionReader.read(reader);
+            }
+            if (!LayerDefinitionSerializer.canWrite(layerDef))
+                continue;
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            LayerDefinitionSerializer.write(new DataOutputStream(output), layerDef);
+            this.serialized.add(output.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void codec(Blackhole blackhole) throws IOException {
+        for (byte[] bytes : this.files) {
+            try (Reader reader = BenchmarkCorpus.openReader(bytes)) {
+                JsonElement json = JsonParser.parseReader(reader);
+                blackhole.consume(EntityModelCodecHolder.LAYER_DEFINITION_CODEC.parse(JsonOps.INSTANCE, json).result().orElseThrow());
+            }
+        }
+    }
+
+    @Benchmark
+    public void reader(Blackhole blackhole) throws IOException {
+        for (byte[] bytes : this.files) {
+            try (Reader reader = BenchmarkCorpus.openReader(bytes)) {
+                blackhole.consume(LayerDefinitionReader.read(reader));
+            }
+        }
+    }
+
+    @Benchmark
+    public void readerInterned(Blackhole blackhole) throws IOException {
+        ModelInterner interner = new ModelInterner();
+        for (byte[] bytes : this.files) {
+            try (Reader reader = BenchmarkCorpus.openReader(bytes)) {
+                blackhole.consume(LayerDefinitionReader.read(reader, interner));
+            }
+        }
+    }
+
+    @Benchmark
+    public void modelCache(Blackhole blackhole) throws IOException {
+        ModelInterner interner = new ModelInterner();
+        for (byte[] bytes : this.serialized) {
+            blackhole.consume(LayerDefinitionSerializer.read(new DataInputStream(new ByteArrayInputStream(bytes)), interner));
+        }
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.electronwill.nightconfig.core.CommentedConfig;
+import me.sizableshrimp.entitymodeljson.EntityModelJsonConfig;
+import me.sizableshrimp.entitymodeljson.EntityModelJsonReloadListener;
+import me.sizableshrimp.entitymodeljson.EntityModelPipeline;
+import me.sizableshrimp.entitymodeljson.LayerDefinitionCache;
+import me.sizableshrimp.entitymodeljson.ModelInterner;
+import me.sizableshrimp.entitymodeljson.ResourceChangeWatcher;
+import me.sizableshrimp.entitymodeljson.StageTimings;
+import me.sizableshrimp.entitymodeljson.animation.CompiledAnimation;
+import me.sizableshrimp.entitymodeljson.animation.EntityAnimationJsonReloadListener;
+import me.sizableshrimp.entitymodeljson.animation.EntityAnimations;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.FolderPackResources;
+import net.minecraft.server.packs.PackType;
+import net.minecraft.server.packs.resources.MultiPackResourceManager;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.util.profiling.InactiveProfiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+/**
+ * Checks hot reloading end to end against a resource pack in a temporary directory, without a Minecraft client instance.
+ * <p>
+ * Entity model and animation files are created, modified, and deleted while a {@link ResourceChangeWatcher} watches the pack,
+ * including the first files in a new namespace and in a namespace which had no entity model directory yet.
+ * After each step, the watcher must report exactly the changed ids, and {@link EntityModelJsonReloadListener#reloadLayers} must read exactly those layers
+ * and the layers which inherit from them, and swap exactly those entries while every other layer keeps its instance.
+ * The reloads go through a model cache on disk, which must still hold the entries of every untouched layer afterwards.
+ * Changed animations go through {@link EntityAnimationJsonReloadListener#reloadAnimations}, first with eagerly compiled and reduced animations
+ * and then with lazily decoded ones, which must swap exactly the changed animations in {@link EntityAnimations}.
+ * Resources are read through a resource manager over the pack, like in game.
+ */
+public class HotReloadCheck {
+    private static final String NAMESPACE = "hot_reload_check";
+    // Only has animations when watching starts
+    private static final String ANIMATION_NAMESPACE = "hot_reload_check_animations";
+    // Does not exist when watching starts
+    private static final String NEW_NAMESPACE = "hot_reload_check_new";
+    private static final String LAYER = "main";
+    private static final long QUIET_PERIOD_MILLIS = 250;
+    private static final long TIMEOUT_MILLIS = 30_000;
+    private static final String CACHE_VERSION = "hot_reload_check";
+    private final Path packRoot;
+    private final Path assetRoot;
+    private final Path cachePath;
+    private final EntityModelPipeline pipeline = new EntityModelPipeline(ForkJoinPool.commonPool());
+    private final ResourceChangeWatcher watcher = new ResourceChangeWatcher();
+    private final List<String> failures = new ArrayList<>();
+    private Map<ModelLayerLocation, ?> roots = Map.of();
+    private Map<ResourceLocation, CompiledAnimation> animations = Map.of();
+
+    private HotReloadCheck(Path packRoot) {
+        this.packRoot = packRoot;
+        this.assetRoot = packRoot.resolve("assets");
+        this.cachePath = packRoot.resolve("model_cache.bin");
+    }
+
+    public static void main(String[] args) throws Exception {
+        EntityModelJsonConfig.CLIENT_SPEC.acceptConfig(CommentedConfig.inMemory());
+        Path packRoot = Files.createTempDirectory("entitymodeljson_hot_reload");
+        List<String> failures;
+        try {
+            HotReloadCheck check = new HotReloadCheck(packRoot);
+            check.run();
+            failures = check.failures;
+        } finally {
+            try (Stream<Path> paths = Files.walk(packRoot)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            failures.forEach(System.err::println);
+            System.err.println("Hot reloading did not re-decode and swap exactly the affected entity models and animations");
+            System.exit(1);
+        }
+        System.out.println("Hot reloading re-decoded and swapped exactly the affected entity models and animations");
+    }
+
+    private void run() throws Exception {
+        // base <- child <- grandchild form a parent chain, and other is unrelated
+        writeModel("base", null, 1);
+        writeModel("child", "base", 1);
+        writeModel("grandchild", "child", 1);
+        writeModel("other", null, 1);
+        writeAnimation("walk", 1.0F);
+        writeAnimation("idle", 1.0F);
+        writeAnimation(ANIMATION_NAMESPACE, "fly", 1.0F);
+
+        LayerDefinitionCache cache = LayerDefinitionCache.load(this.cachePath, CACHE_VERSION);
+        EntityModelPipeline.Result initial;
+        try (MultiPackResourceManager resourceManager = openResourceManager()) {
+            initial = this.pipeline.run(listResourceStacks(resourceManager), Map.of(), cache, new StageTimings());
+        }
+        cache.save(true);
+        this.roots = initial.roots();
+        expect("initial load", "roots", Set.of(layer("base"), layer("child"), layer("grandchild"), layer("other")), initial.roots().keySet());
+
+        EntityModelJsonConfig.CLIENT.reduceKeyframes.set(true);
+        reloadAllAnimations("initial load");
+
+        this.watcher.start(List.of(this.assetRoot));
+        try {
+            writeModel("base", null, 2);
+            step("modify a parent", Set.of(layer("base")), Set.of(layer("base"), layer("child"), layer("grandchild")), Set.of());
+
+            writeModel("grandchild", "child", 2);
+            step("modify a leaf", Set.of(layer("grandchild")), Set.of(layer("grandchild")), Set.of());
+
+            writeModel("added", null, 1);
+            step("create a model", Set.of(layer("added")), Set.of(layer("added")), Set.of());
+
+            Files.delete(modelPath(NAMESPACE, "other"));
+            step("delete a model", Set.of(layer("other")), Set.of(layer("other")), Set.of());
+
+            writeAnimation("walk", 2.0F);
+            step("modify an animation", Set.of(), Set.of(), Set.of(animation("walk")));
+
+            writeAnimation("run", 1.0F);
+            step("create an animation", Set.of(), Set.of(), Set.of(animation("run")));
+
+            Files.delete(animationPath(NAMESPACE, "idle"));
+            step("delete an animation", Set.of(), Set.of(), Set.of(animation("idle")));
+
+            EntityModelJsonConfig.CLIENT.lazyAnimations.set(true);
+            reloadAllAnimations("switch to lazy animations");
+
+            writeAnimation("walk", 3.0F);
+            step("modify a lazy animation", Set.of(), Set.of(), Set.of(animation("walk")));
+
+            writeAnimation("jump", 1.0F);
+            step("create a lazy animation", Set.of(), Set.of(), Set.of(animation("jump")));
+
+            Files.delete(animationPath(NAMESPACE, "run"));
+            step("delete a lazy animation", Set.of(), Set.of(), Set.of(animation("run")));
+
+            writeModel(ANIMATION_NAMESPACE, "first", null, 1);
+            step("create the entity model directory of a namespace", Set.of(layer(ANIMATION_NAMESPACE, "first")), Set.of(layer(ANIMATION_NAMESPACE, "first")), Set.of());
+
+            writeModel(NEW_NAMESPACE, "first", null, 1);
+            step("create a model in a new namespace", Set.of(layer(NEW_NAMESPACE, "first")), Set.of(layer(NEW_NAMESPACE, "first")), Set.of());
+
+            writeAnimation(NEW_NAMESPACE, "first", 1.0F);
+            step("create an animation in a new namespace", Set.of(), Set.of(), Set.of(new ResourceLocation(NEW_NAMESPACE, "first")));
+        } finally {
+            this.watcher.stop();
+        }
+    }
+
+    /**
+     * Waits for the watcher to collect the changes of a step, and reloads the changed layers and animations.
+     *
+     * @param changedLayers The layers whose files were changed in this step
+     * @param affectedLayers The changed layers and every layer inheriting from them, which must be read and swapped
+     * @param changedAnimations The animations whose files were changed in this step
+     */
+    private void step(String name, Set<ModelLayerLocation> changedLayers, Set<ModelLayerLocation> affectedLayers, Set<ResourceLocation> changedAnimations)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!this.watcher.hasPendingChanges() || this.watcher.getMillisSinceLastEvent() < QUIET_PERIOD_MILLIS) {
+            if (System.currentTimeMillis() > deadline) {
+                this.failures.add(name + ": the watcher did not report any change within " + TIMEOUT_MILLIS + " ms");
+                return;
+            }
+            Thread.sleep(50);
+        }
+
+        Set<ModelLayerLocation> pendingLayers = this.watcher.takePendingLayers();
+        Set<ResourceLocation> pendingAnimations = this.watcher.takePendingAnimations();
+        expect(name, "watched layers", changedLayers, pendingLayers);
+        expect(name, "watched animations", changedAnimations, pendingAnimations);
+
+        // A new resource manager sees the changed files, like the one of the client after the watcher reloaded the resource packs
+        try (MultiPackResourceManager resourceManager = openResourceManager()) {
+            if (!pendingLayers.isEmpty())
+                reloadLayers(name, resourceManager, pendingLayers, affectedLayers);
+            if (!pendingAnimations.isEmpty()) {
+                EntityAnimationJsonReloadListener.reloadAnimations(resourceManager, pendingAnimations);
+                checkAnimations(name, resourceManager, pendingAnimations);
+            }
+        }
+    }
+
+    private void reloadLayers(String name, MultiPackResourceManager resourceManager, Set<ModelLayerLocation> pendingLayers, Set<ModelLayerLocation> affectedLayers) {
+        Set<ModelLayerLocation> readLayers = new HashSet<>();
+        LayerDefinitionCache cache = LayerDefinitionCache.load(this.cachePath, CACHE_VERSION);
+        EntityModelPipeline.Result result = EntityModelJsonReloadListener.reloadLayers(this.pipeline, pendingLayers, fullLocation -> {
+            String path = fullLocation.getPath();
+            readLayers.add(layer(fullLocation.getNamespace(), path.substring(path.lastIndexOf('/') + 1, path.length() - EntityModelPipeline.PATH_SUFFIX.length())));
+            return resourceManager.getResourceStack(fullLocation);
+        }, cache);
+
+        expect(name, "re-decoded layers", affectedLayers, readLayers);
+        expect(name, "swapped layers", affectedLayers, result.changed());
+        for (var entry : this.roots.entrySet()) {
+            if (!affectedLayers.contains(entry.getKey()) && result.roots().get(entry.getKey()) != entry.getValue())
+                this.failures.add(name + ": unaffected layer " + entry.getKey() + " was replaced");
+        }
+        this.roots = result.roots();
+        checkCache(name, resourceManager);
+    }
+
+    /**
+     * Reloads all animations through {@link EntityAnimationJsonReloadListener} like a resource pack reload,
+     * using the current {@link EntityModelJsonConfig} values.
+     */
+    private void reloadAllAnimations(String name) {
+        try (MultiPackResourceManager resourceManager = openResourceManager()) {
+            new EntityAnimationJsonReloadListener().reload(CompletableFuture::completedFuture, resourceManager,
+                    InactiveProfiler.INSTANCE, InactiveProfiler.INSTANCE, Runnable::run, Runnable::run).join();
+            this.animations = Map.of();
+            checkAnimations(name, resourceManager, Set.of());
+        }
+    }
+
+    /**
+     * Checks that {@link EntityAnimations} holds exactly the animations in the pack,
+     * and that only the changed animations were replaced since the last check.
+     */
+    private void checkAnimations(String name, MultiPackResourceManager resourceManager, Set<ResourceLocation> changedAnimations) {
+        String directory = ResourceChangeWatcher.ANIMATIONS_DIRECTORY;
+        Map<ResourceLocation, CompiledAnimation> animations = new HashMap<>();
+        for (ResourceLocation fileLocation : resourceManager.listResources(directory, id -> id.getPath().endsWith(EntityModelPipeline.PATH_SUFFIX)).keySet()) {
+            String path = fileLocation.getPath();
+            ResourceLocation id = new ResourceLocation(fileLocation.getNamespace(),
+                    path.substring(directory.length() + 1, path.length() - EntityModelPipeline.PATH_SUFFIX.length()));
+            EntityAnimations.getCompiled(id).ifPresentOrElse(animation -> animations.put(id, animation),
+                    () -> this.failures.add(name + ": animation " + id + " is missing"));
+        }
+
+        for (ResourceLocation id : changedAnimations) {
+            if (!animations.containsKey(id) && EntityAnimations.getCompiled(id).isPresent())
+                this.failures.add(name + ": deleted animation " + id + " is still present");
+        }
+        for (var entry : this.animations.entrySet()) {
+            CompiledAnimation animation = animations.get(entry.getKey());
+            if (animation == null)
+                continue;
+            if (changedAnimations.contains(entry.getKey()) && animation == entry.getValue())
+                this.failures.add(name + ": changed animation " + entry.getKey() + " was not replaced");
+            if (!changedAnimations.contains(entry.getKey()) && animation != entry.getValue())
+                this.failures.add(name + ": unchanged animation " + entry.getKey() + " was replaced");
+        }
+        this.animations = animations;
+    }
+
+    /**
+     * Checks that the model cache on disk holds an entry for the current contents of every model file, whether it was reloaded or not.
+     */
+    private void checkCache(String name, MultiPackResourceManager resourceManager) {
+        LayerDefinitionCache cache = LayerDefinitionCache.load(this.cachePath, CACHE_VERSION);
+        try {
+            for (var entry : listResourceStacks(resourceManager).entrySet()) {
+                for (Resource resource : entry.getValue()) {
+                    byte[] bytes;
+                    try (var inputStream = resource.open()) {
+                        bytes = inputStream.readAllBytes();
+                    }
+                    if (cache.get(LayerDefinitionCache.hash(bytes), new ModelInterner()) == null)
+                        this.failures.add(name + ": the model cache lost the entry of " + entry.getKey());
+                }
+            }
+        } catch (IOException e) {
+            this.failures.add(name + ": couldn't read the model files to check the model cache - " + e);
+        }
+    }
+
+    private void expect(String step, String what, Set<?> expected, Set<?> actual) {
+        if (!expected.equals(actual))
+            this.failures.add(step + ": expected " + what + " " + expected + " but got " + actual);
+    }
+
+    private MultiPackResourceManager openResourceManager() {
+        return new MultiPackResourceManager(PackType.CLIENT_RESOURCES, List.of(new FolderPackResources(this.packRoot.toFile())));
+    }
+
+    private static Map<ResourceLocation, List<Resource>> listResourceStacks(MultiPackResourceManager resourceManager) {
+        return resourceManager.listResourceStacks(EntityModelPipeline.DIRECTORY, id -> id.getPath().endsWith(EntityModelPipeline.PATH_SUFFIX));
+    }
+
+    private void writeModel(String model, String parent, int cubeSize) throws IOException {
+        writeModel(NAMESPACE, model, parent, cubeSize);
+    }
+
+    private void writeModel(String namespace, String model, String parent, int cubeSize) throws IOException {
+        String parentJson = parent == null ? "" : "\"parent\": \"" + layer(parent) + "\", \"overwrite\": false, ";
+        String json = "{\"mesh\": {" + parentJson + "\"root\": {\"children\": {\"" + model + "\": {\"cubes\": [{\"texCoord\": {\"u\": 0, \"v\": 0}, "
+                + "\"origin\": [0, 0, 0], \"dimensions\": [" + cubeSize + ", " + cubeSize + ", " + cubeSize + "]}], \"partPose\": {}}}}}, "
+                + "\"material\": {\"xTexSize\": 64, \"yTexSize\": 64}}";
+        write(modelPath(namespace, model), json);
+    }
+
+    private void writeAnimation(String animation, float length) throws IOException {
+        writeAnimation(NAMESPACE, animation, length);
+    }
+
+    private void writeAnimation(String namespace, String animation, float length) throws IOException {
+        write(animationPath(namespace, animation), "{\"lengthInSeconds\": " + length + ", \"looping\": true, \"boneAnimations\": {}}");
+    }
+
+    private static void write(Path path, String content) throws IOException {
+        Files.createDirectories(path.getParent());
+        Files.writeString(path, content, StandardCharsets.UTF_8);
+    }
+
+    private Path modelPath(String namespace, String model) {
+        return this.assetRoot.resolve(namespace).resolve(EntityModelPipeline.DIRECTORY).resolve(LAYER).resolve(model + EntityModelPipeline.PATH_SUFFIX);
+    }
+
+    private Path animationPath(String namespace, String animation) {
+        return this.assetRoot.resolve(namespace).resolve(ResourceChangeWatcher.ANIMATIONS_DIRECTORY).resolve(animation + EntityModelPipeline.PATH_SUFFIX);
+    }
+
+    private static ModelLayerLocation layer(String model) {
+        return layer(NAMESPACE, model);
+    }
+
+    private static ModelLayerLocation layer(String namespace, String model) {
+        return new ModelLayerLocation(new ResourceLocation(namespace, model), LAYER);
+    }
+
+    private static ResourceLocation animation(String animation) {
+        return new ResourceLocation(NAMESPACE, animation);
+    }
+}
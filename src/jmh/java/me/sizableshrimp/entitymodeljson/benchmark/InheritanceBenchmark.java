@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import me.sizableshrimp.entitymodeljson.InheritingLayerDefinition;
+import me.sizableshrimp.entitymodeljson.LayerInheritanceResolver;
+import me.sizableshrimp.entitymodeljson.ModelInterner;
+import me.sizableshrimp.entitymodeljson.ParentedMeshDefinition;
+import me.sizableshrimp.entitymodeljson.SafePartDefinition;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeListBuilder;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.MeshDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import net.minecraft.resources.ResourceLocation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves inheritance for synthetic parent chains, where every layer in a chain adds parts on top of all parts of its parent.
+ * Resolving mutates the layer definitions, so the chains are built again before every invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InheritanceBenchmark {
+    private static final int PARTS_PER_LAYER = 8;
+    private static final CubeDeformation UNIVERSAL_CUBE_DEFORMATION = new CubeDeformation(0.25F);
+    private static final List<CubeDefinition> CUBES = CubeListBuilder.create().texOffs(0, 0).addBox(-4.0F, -4.0F, -4.0F, 8.0F, 8.0F, 8.0F).getCubes();
+
+    @Param({"2", "8", "32"})
+    private int depth;
+    @Param({"1", "64"})
+    private int chains;
+
+    private Map<ModelLayerLocation, LayerDefinition> jsonRoots;
+    private Map<ModelLayerLocation, LayerDefinition> roots;
+
+    @Setup(Level.Invocation)
+    public void setup() {
+        this.jsonRoots = new HashMap<>();
+        this.roots = new HashMap<>();
+
+        for (int chain = 0; chain < this.chains; chain++) {
+            // The base of every chain is a code-defined layer
+            MeshDefinition baseMesh = new MeshDefinition();
+            addParts(baseMesh.getRoot(), "base");
+            ModelLayerLocation parent = new ModelLayerLocation(new ResourceLocation("benchmark", "chain_" + chain), "layer_0");
+            this.roots.put(parent, LayerDefinition.create(baseMesh, 64, 64));
+
+            for (int i = 1; i <= this.depth; i++) {
+                SafePartDefinition root = new SafePartDefinition(List.of(), PartPose.ZERO);
+                addParts(root, "layer_" + i);
+                // Every other layer applies a universal cube deformation to all of its inherited parts
+                CubeDeformation universalCubeDeformation = i % 2 == 0 ? UNIVERSAL_CUBE_DEFORMATION : null;
+                ParentedMeshDefinition mesh = new ParentedMeshDefinition(parent, universalCubeDeformation, root, true, false);
+
+                ModelLayerLocation location = new ModelLayerLocation(parent.getModel(), "layer_" + i);
+                LayerDefinition layerDef = new InheritingLayerDefinition(mesh, (MaterialDefinition) null);
+                this.jsonRoots.put(location, layerDef);
+                this.roots.put(location, layerDef);
+                parent = location;
+            }
+        }
+    }
+
+    private static void addParts(PartDefinition root, String prefix) {
+        for (int i = 0; i < PARTS_PER_LAYER; i++) {
+            root.children.put(prefix + "_part_" + i, new SafePartDefinition(CUBES, PartPose.offset(i, 0.0F, 0.0F)));
+        }
+    }
+
+    @Benchmark
+    public Map<ModelLayerLocation, LayerDefinition> resolve() {
+        ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots = ArrayListMultimap.create();
+        // Resolve on the calling thread, so that the benchmark measures the work itself and not the scheduling
+        LayerInheritanceResolver.resolve(this.jsonRoots, prevRoots, this.roots, new ModelInterner(), Runnable::run);
+        return this.roots;
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mojang.serialization.JsonOps;
+import me.sizableshrimp.entitymodeljson.EntityModelCodecHolder;
+import me.sizableshrimp.entitymodeljson.InheritingLayerDefinition;
+import me.sizableshrimp.entitymodeljson.LayerDefinitionReader;
+import me.sizableshrimp.entitymodeljson.ParentedMeshDefinition;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import net.minecraft.client.model.geom.builders.UVPair;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decodes every file of the corpus with both {@link LayerDefinitionReader} and {@link EntityModelCodecHolder#LAYER_DEFINITION_CODEC},
+ * and fails if the two layer definitions differ in any way.
+ * <p>
+ * Layer and mesh types, materials, parents, universal cube deformations, overwrite and vanilla offset flags, part types, poses, children,
+ * and every field of every cube are compared, with floats compared bit for bit. The corpus is read by {@link BenchmarkCorpus}.
+ * <p>
+ * Every file is also read again with content after the top-level object, which the reader must reject so that the codec handles it.
+ */
+public class ReaderConformanceCheck {
+    private static final List<String> TRAILING_CONTENT = List.of("}", " {}", "\n[]", " x");
+
+    public static void main(String[] args) throws IOException {
+        Map<ModelLayerLocation, byte[]> files = BenchmarkCorpus.loadFiles();
+        List<String> differences = new ArrayList<>();
+
+        for (var entry : files.entrySet()) {
+            String location = entry.getKey().toString();
+
+            LayerDefinition read;
+            try (Reader reader = BenchmarkCorpus.openReader(entry.getValue())) {
+                read = LayerDefinitionReader.read(reader);
+            } catch (IOException | RuntimeException e) {
+                differences.add(location + ": the reader failed - " + e);
+                continue;
+            }
+
+            JsonElement json;
+            try (Reader reader = BenchmarkCorpus.openReader(entry.getValue())) {
+                json = JsonParser.parseReader(reader);
+            }
+            List<String> codecErrors = new ArrayList<>();
+            LayerDefinition decoded = EntityModelCodecHolder.LAYER_DEFINITION_CODEC.parse(JsonOps.INSTANCE, json)
+                    .resultOrPartial(codecErrors::add)
+                    .orElse(null);
+            if (decoded == null || !codecErrors.isEmpty()) {
+                differences.add(location + ": the codec failed - " + codecErrors);
+                continue;
+            }
+
+            compareLayers(location, read, decoded, differences);
+            checkTrailingContent(location, entry.getValue(), differences);
+        }
+
+        System.out.printf("Compared %d entity models decoded by the reader and the codec, %d differences%n", files.size(), differences.size());
+        if (!differences.isEmpty()) {
+            differences.forEach(System.err::println);
+            System.err.println("LayerDefinitionReader does not conform to LAYER_DEFINITION_CODEC");
+            System.exit(1);
+        }
+    }
+
+    private static void checkTrailingContent(String location, byte[] bytes, List<String> differences) throws IOException {
+        for (String trailingContent : TRAILING_CONTENT) {
+            byte[] trailingBytes = trailingContent.getBytes(StandardCharsets.UTF_8);
+            byte[] junkBytes = Arrays.copyOf(bytes, bytes.length + trailingBytes.length);
+            System.arraycopy(trailingBytes, 0, junkBytes, bytes.length, trailingBytes.length);
+
+            try (Reader reader = BenchmarkCorpus.openReader(junkBytes)) {
+                LayerDefinitionReader.read(reader);
+                differences.add(location + ": the reader accepted trailing content " + trailingContent.strip());
+            } catch (IOException | RuntimeException e) {
+                // Expected, so that the codec decides how to handle the file
+            }
+        }
+    }
+
+    private static void compareLayers(String path, LayerDefinition read, LayerDefinition decoded, List<String> differences) {
+        check(path, "layer type", read.getClass(), decoded.getClass(), differences);
+        check(path, "material", describe(getMaterial(read)), describe(getMaterial(decoded)), differences);
+        check(path, "mesh type", read.mesh.getClass(), decoded.mesh.getClass(), differences);
+
+        if (read.mesh instanceof ParentedMeshDefinition readMesh && decoded.mesh instanceof ParentedMeshDefinition decodedMesh) {
+            check(path, "parent", readMesh.getParent(), decodedMesh.getParent(), differences);
+            check(path, "universal cube deformation", describe(readMesh.getUniversalCubeDeformation()), describe(decodedMesh.getUniversalCubeDeformation()), differences);
+            check(path, "overwrite", readMesh.isOverwrite(), decodedMesh.isOverwrite(), differences);
+            check(path, "fix vanilla offset", readMesh.shouldFixVanillaOffset(), decodedMesh.shouldFixVanillaOffset(), differences);
+        }
+
+        compareParts(path + "/root", read.mesh.getRoot(), decoded.mesh.getRoot(), differences);
+    }
+
+    private static void compareParts(String path, PartDefinition read, PartDefinition decoded, List<String> differences) {
+        check(path, "part type", read.getClass(), decoded.getClass(), differences);
+        check(path, "pose", describe(read.partPose), describe(decoded.partPose), differences);
+
+        check(path, "cube count", read.cubes.size(), decoded.cubes.size(), differences);
+        for (int i = 0; i < Math.min(read.cubes.size(), decoded.cubes.size()); i++) {
+            check(path, "cube " + i, describe(read.cubes.get(i)), describe(decoded.cubes.get(i)), differences);
+        }
+
+        Set<String> childNames = new HashSet<>(read.children.keySet());
+        childNames.addAll(decoded.children.keySet());
+        for (String name : childNames) {
+            PartDefinition readChild = read.children.get(name);
+            PartDefinition decodedChild = decoded.children.get(name);
+            if (readChild == null || decodedChild == null) {
+                differences.add(path + "/" + name + ": only present when decoded by the " + (readChild == null ? "codec" : "reader"));
+            } else {
+                compareParts(path + "/" + name, readChild, decodedChild, differences);
+            }
+        }
+    }
+
+    private static void check(String path, String property, @Nullable Object read, @Nullable Object decoded, List<String> differences) {
+        if (!Objects.equals(read, decoded))
+            differences.add(path + ": " + property + " is " + read + " when decoded by the reader, but " + decoded + " when decoded by the codec");
+    }
+
+    @Nullable
+    private static MaterialDefinition getMaterial(LayerDefinition layerDef) {
+        return layerDef instanceof InheritingLayerDefinition inheritingLayerDef ? inheritingLayerDef.getMaterial() : layerDef.material;
+    }
+
+    // Floats are described by their bits, so that -0.0 and 0.0 or different NaNs count as different
+    private static String describe(float... values) {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                builder.append(", ");
+            builder.append(values[i]).append('#').append(Integer.toHexString(Float.floatToRawIntBits(values[i])));
+        }
+        return builder.append(']').toString();
+    }
+
+    @Nullable
+    private static String describe(@Nullable MaterialDefinition material) {
+        return material == null ? null : material.xTexSize + "x" + material.yTexSize;
+    }
+
+    @Nullable
+    private static String describe(@Nullable CubeDeformation deformation) {
+        return deformation == null ? null : describe(deformation.growX, deformation.growY, deformation.growZ);
+    }
+
+    private static String describe(PartPose pose) {
+        return describe(pose.x, pose.y, pose.z, pose.xRot, pose.yRot, pose.zRot);
+    }
+
+    private static String describe(UVPair uv) {
+        return describe(uv.u(), uv.v());
+    }
+
+    private static String describe(CubeDefinition cube) {
+        return "{comment=" + cube.comment + ", origin=" + describe(cube.origin.x(), cube.origin.y(), cube.origin.z())
+                + ", dimensions=" + describe(cube.dimensions.x(), cube.dimensions.y(), cube.dimensions.z()) + ", grow=" + describe(cube.grow)
+                + ", mirror=" + cube.mirror + ", texCoord=" + describe(cube.texCoord) + ", texScale=" + describe(cube.texScale) + "}";
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import me.sizableshrimp.entitymodeljson.EntityModelPipeline;
+import me.sizableshrimp.entitymodeljson.StageTimings;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the full {@link EntityModelPipeline} over synthetic corpora of increasing size, and fails if the time or retained memory per file
+ * of the largest corpus grows more than the allowed factor over the smallest corpus.
+ * <p>
+ * The file counts are read from the {@code entitymodeljson.scaling.fileCounts} system property as a comma separated list,
+ * and the allowed factor from {@code entitymodeljson.scaling.tolerance}.
+ * All other options of the corpus are read by {@link SyntheticCorpusGenerator.Options#fromSystemProperties()}.
+ */
+public class ScalingCheck {
+    private static final String PROPERTY_PREFIX = "entitymodeljson.scaling.";
+    private static final int WARMUP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+
+    public static void main(String[] args) {
+        int[] fileCounts = Arrays.stream(System.getProperty(PROPERTY_PREFIX + "fileCounts", "200,2000,20000").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim()))
+                .sorted()
+                .toArray();
+        double tolerance = Double.parseDouble(System.getProperty(PROPERTY_PREFIX + "tolerance", "2.0"));
+        SyntheticCorpusGenerator.Options options = SyntheticCorpusGenerator.Options.fromSystemProperties();
+
+        Measurement[] measurements = new Measurement[fileCounts.length];
+        for (int i = 0; i < fileCounts.length; i++) {
+            measurements[i] = measure(options.withFileCount(fileCounts[i]));
+            System.out.printf("%8d files: %10.3f ms (%8.2f us/file), %10.2f MiB retained (%8.2f KiB/file) - %s%n", fileCounts[i],
+                    measurements[i].nanos() / 1e6, measurements[i].nanos() / 1e3 / fileCounts[i],
+                    measurements[i].bytes() / 1048576.0, measurements[i].bytes() / 1024.0 / fileCounts[i], measurements[i].timings());
+        }
+
+        Measurement smallest = measurements[0];
+        Measurement largest = measurements[measurements.length - 1];
+        double timeFactor = ((double) largest.nanos() / fileCounts[fileCounts.length - 1]) / ((double) smallest.nanos() / fileCounts[0]);
+        double memoryFactor = ((double) largest.bytes() / fileCounts[fileCounts.length - 1]) / ((double) smallest.bytes() / fileCounts[0]);
+        System.out.printf("Growth per file from %d to %d files: time x%.2f, memory x%.2f (tolerance x%.2f)%n",
+                fileCounts[0], fileCounts[fileCounts.length - 1], timeFactor, memoryFactor, tolerance);
+
+        if (timeFactor > tolerance || memoryFactor > tolerance) {
+            System.err.println("The entity model pipeline does not scale linearly");
+            System.exit(1);
+        }
+    }
+
+    private static Measurement measure(SyntheticCorpusGenerator.Options options) {
+        Map<ResourceLocation, List<Resource>> resourceStacks = SyntheticCorpusGenerator.generate(options);
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run(resourceStacks);
+        }
+
+        long[] nanos = new long[MEASURED_RUNS];
+        StageTimings timings = null;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            timings = new StageTimings();
+            long start = System.nanoTime();
+            run(resourceStacks, timings);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+
+        long baseline = usedMemory();
+        EntityModelPipeline.Result result = run(resourceStacks);
+        long bytes = usedMemory() - baseline;
+        // Keep the result reachable until the memory has been measured
+        if (result.roots().isEmpty())
+            throw new IllegalStateException("Synthetic corpus did not produce any layer definitions");
+
+        return new Measurement(nanos[MEASURED_RUNS / 2], bytes, timings);
+    }
+
+    private static EntityModelPipeline.Result run(Map<ResourceLocation, List<Resource>> resourceStacks) {
+        return run(resourceStacks, new StageTimings());
+    }
+
+    private static EntityModelPipeline.Result run(Map<ResourceLocation, List<Resource>> resourceStacks, StageTimings timings) {
+        // A new pipeline is used for every run, so that no layer definitions are kept from an earlier run
+        return new EntityModelPipeline(ForkJoinPool.commonPool()).run(resourceStacks, Map.of(), null, timings);
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                TimeUnit.MILLISECONDS.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private record Measurement(long nanos, long bytes, StageTimings timings) {}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.benchmark;
+
+import com.google.gson.stream.JsonWriter;
+import me.sizableshrimp.entitymodeljson.EntityModelPipeline;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic {@value EntityModelPipeline#DIRECTORY} packs to measure how the mod scales with large and deep model corpora.
+ * <p>
+ * Files are grouped into parent chains, where every layer in a chain inherits from the previous layer of the same model.
+ * Every file has a part tree of the configured depth, where each part has the configured number of children and cubes.
+ * The first pack declares every file; every pack stacked on top of it declares every file again,
+ * either overwriting or merging with the packs below it according to the overwrite ratio.
+ * <p>
+ * When run as a program, the packs are written to the folder given as the first argument so they can be used as resource packs.
+ * The options are read from {@code entitymodeljson.synthetic.<option>} system properties in both cases.
+ */
+public class SyntheticCorpusGenerator {
+    public static final String NAMESPACE = "synthetic";
+    private static final String PROPERTY_PREFIX = "entitymodeljson.synthetic.";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1)
+            throw new IllegalArgumentException("Usage: SyntheticCorpusGenerator <output folder>");
+
+        Options options = Options.fromSystemProperties();
+        Path outputFolder = Path.of(args[0]);
+        List<Map<String, byte[]>> packs = generatePacks(options);
+
+        for (int i = 0; i < packs.size(); i++) {
+            Path packFolder = outputFolder.resolve("synthetic_" + i);
+            Files.createDirectories(packFolder);
+            Files.writeString(packFolder.resolve("pack.mcmeta"), "{\"pack\":{\"pack_format\":9,\"description\":\"Synthetic entity models " + i + "\"}}");
+
+            for (var entry : packs.get(i).entrySet()) {
+                Path path = packFolder.resolve("assets").resolve(NAMESPACE).resolve(entry.getKey());
+                Files.createDirectories(path.getParent());
+                Files.write(path, entry.getValue());
+            }
+        }
+
+        System.out.println("Generated " + options.fileCount() + " entity models in " + packs.size() + " packs at " + outputFolder.toAbsolutePath());
+    }
+
+    /**
+     * Generates the packs in memory, as the resource listing which {@link EntityModelPipeline#decode} expects.
+     */
+    public static Map<ResourceLocation, List<Resource>> generate(Options options) {
+        Map<ResourceLocation, List<Resource>> resourceStacks = new LinkedHashMap<>();
+        List<Map<String, byte[]>> packs = generatePacks(options);
+
+        for (int i = 0; i < packs.size(); i++) {
+            String packId = "synthetic_" + i;
+            packs.get(i).forEach((path, bytes) -> resourceStacks.computeIfAbsent(new ResourceLocation(NAMESPACE, path), k -> new ArrayList<>(options.packCount()))
+                    .add(new Resource(packId, () -> new ByteArrayInputStream(bytes))));
+        }
+
+        return resourceStacks;
+    }
+
+    /**
+     * @return The files of every pack, from the bottom pack to the top pack, keyed by their path relative to the namespace folder
+     */
+    private static List<Map<String, byte[]>> generatePacks(Options options) {
+        Random random = new Random(options.seed());
+        List<Map<String, byte[]>> packs = new ArrayList<>(options.packCount());
+
+        for (int pack = 0; pack < options.packCount(); pack++) {
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            for (int file = 0; file < options.fileCount(); file++) {
+                String model = "mob_" + file / options.parentChainLength();
+                int layerIdx = file % options.parentChainLength();
+                // The bottom pack always overwrites any code roots
+                boolean overwrite = pack == 0 || random.nextFloat() < options.overwriteRatio();
+
+                try {
+                    files.put(EntityModelPipeline.DIRECTORY + "/layer_" + layerIdx + "/" + model + EntityModelPipeline.PATH_SUFFIX,
+                            writeLayer(options, random, model, layerIdx, pack, overwrite).getBytes(StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            packs.add(files);
+        }
+
+        return packs;
+    }
+
+    private static String writeLayer(Options options, Random random, String model, int layerIdx, int pack, boolean overwrite) throws IOException {
+        StringWriter stringWriter = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(stringWriter)) {
+            writer.beginObject();
+            writer.name("mesh").beginObject();
+            if (layerIdx > 0)
+                writer.name("parent").value(NAMESPACE + ":" + model + "#layer_" + (layerIdx - 1));
+            writer.name("overwrite").value(overwrite);
+            writer.name("root").beginObject();
+            writer.name("children").beginObject();
+            // Part names are unique per layer and pack, so that inherited and merged parts add up instead of replacing each other
+            writePart(writer, options, random, "layer_" + layerIdx + "_pack_" + pack, 1);
+            writer.endObject();
+            writer.endObject();
+            writer.endObject();
+            writer.name("material").beginObject();
+            writer.name("xTexSize").value(64);
+            writer.name("yTexSize").value(64);
+            writer.endObject();
+            writer.endObject();
+        }
+        return stringWriter.toString();
+    }
+
+    private static void writePart(JsonWriter writer, Options options, Random random, String name, int depth) throws IOException {
+        writer.name(name).beginObject();
+
+        writer.name("cubes").beginArray();
+        for (int i = 0; i < options.cubesPerPart(); i++) {
+            writer.beginObject();
+            writer.name("texCoord").beginObject().name("u").value(random.nextInt(48)).name("v").value(random.nextInt(48)).endObject();
+            writer.name("origin").beginArray().value(random.nextInt(16) - 8).value(random.nextInt(16) - 8).value(random.nextInt(16) - 8).endArray();
+            writer.name("dimensions").beginArray().value(random.nextInt(8) + 1).value(random.nextInt(8) + 1).value(random.nextInt(8) + 1).endArray();
+            if (random.nextInt(4) == 0)
+                writer.name("grow").value(0.25F * (random.nextInt(4) + 1));
+            writer.endObject();
+        }
+        writer.endArray();
+
+        writer.name("partPose").beginObject().name("y").value(random.nextInt(24)).name("xRot").value(random.nextFloat()).endObject();
+
+        if (depth < options.treeDepth()) {
+            writer.name("children").beginObject();
+            for (int i = 0; i < options.childrenPerPart(); i++) {
+                writePart(writer, options, random, name + "_" + i, depth + 1);
+            }
+            writer.endObject();
+        }
+
+        writer.endObject();
+    }
+
+    /**
+     * @param fileCount The number of distinct files in every pack
+     * @param cubesPerPart The number of cubes in every part
+     * @param treeDepth The depth of the part tree in every file, where 1 means a single part below the root
+     * @param childrenPerPart The number of children of every part which is not a leaf
+     * @param parentChainLength The number of layers in every parent chain, where 1 means that no file has a parent
+     * @param packCount The number of stacked packs
+     * @param overwriteRatio The fraction of files in stacked packs which overwrite the packs below them instead of merging with them
+     * @param seed The seed used for the generated cubes, poses, and overwrite choices
+     */
+    public record Options(int fileCount, int cubesPerPart, int treeDepth, int childrenPerPart, int parentChainLength, int packCount, float overwriteRatio,
+            long seed) {
+        public static final Options DEFAULT = new Options(1000, 2, 3, 3, 4, 1, 0.5F, 0L);
+
+        public Options {
+            if (fileCount < 1 || cubesPerPart < 0 || treeDepth < 1 || childrenPerPart < 0 || parentChainLength < 1 || packCount < 1)
+                throw new IllegalArgumentException("Invalid synthetic corpus options " + this);
+            if (overwriteRatio < 0 || overwriteRatio > 1)
+                throw new IllegalArgumentException("Overwrite ratio must be between 0 and 1 but was " + overwriteRatio);
+        }
+
+        public static Options fromSystemProperties() {
+            return new Options(
+                    Integer.getInteger(PROPERTY_PREFIX + "fileCount", DEFAULT.fileCount()),
+                    Integer.getInteger(PROPERTY_PREFIX + "cubesPerPart", DEFAULT.cubesPerPart()),
+                    Integer.getInteger(PROPERTY_PREFIX + "treeDepth", DEFAULT.treeDepth()),
+                    Integer.getInteger(PROPERTY_PREFIX + "childrenPerPart", DEFAULT.childrenPerPart()),
+                    Integer.getInteger(PROPERTY_PREFIX + "parentChainLength", DEFAULT.parentChainLength()),
+                    Integer.getInteger(PROPERTY_PREFIX + "packCount", DEFAULT.packCount()),
+                    Float.parseFloat(System.getProperty(PROPERTY_PREFIX + "overwriteRatio", Float.toString(DEFAULT.overwriteRatio()))),
+                    Long.getLong(PROPERTY_PREFIX + "seed", DEFAULT.seed()));
+        }
+
+        public Options withFileCount(int fileCount) {
+            return new Options(fileCount, this.cubesPerPart, this.treeDepth, this.childrenPerPart, this.parentChainLength, this.packCount, this.overwriteRatio, this.seed);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A cache of immutable baked cube geometry, so that renderers which bake the same layer share the polygon and vertex arrays of its cubes.
+ * Each bake still creates fresh {@link ModelPart}s, since model parts hold mutable pose state.
+ * <p>
+ * Geometry is keyed by the identity of the part definition which it was baked from, along with the texture size.
+ * Every location which shares a layer definition or an inherited subtree therefore also shares its baked geometry.
+ * On every reload, geometry which is no longer reachable from any layer definition is dropped.
+ */
+public class BakedGeometryCache {
+    private static final Map<Key, List<ModelPart.Cube>> CUBES = new ConcurrentHashMap<>();
+
+    public static List<ModelPart.Cube> getCubes(PartDefinition partDef, int texWidth, int texHeight) {
+        return CUBES.computeIfAbsent(new Key(partDef, texWidth, texHeight), key -> bakeCubes(partDef.cubes, texWidth, texHeight));
+    }
+
+    public static void clear() {
+        CUBES.clear();
+    }
+
+    /**
+     * Drops the geometry of every part definition which is not reachable from the given layer definitions.
+     * Layer definitions which were kept across a reload keep their baked geometry.
+     */
+    public static void retainAll(Collection<LayerDefinition> layerDefs) {
+        Set<PartDefinition> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (LayerDefinition layerDef : layerDefs) {
+            // Lazy layers which were never used have nothing cached, and walking them would decode them
+            if (layerDef.mesh instanceof LazyMeshDefinition lazyMesh && !lazyMesh.isResolved())
+                continue;
+            collectParts(layerDef.mesh.getRoot(), reachable);
+        }
+        CUBES.keySet().removeIf(key -> !reachable.contains(key.partDef()));
+    }
+
+    private static void collectParts(PartDefinition partDef, Set<PartDefinition> reachable) {
+        if (!reachable.add(partDef))
+            return;
+        for (PartDefinition child : partDef.children.values()) {
+            collectParts(child, reachable);
+        }
+    }
+
+    private static List<ModelPart.Cube> bakeCubes(List<CubeDefinition> cubeDefs, int texWidth, int texHeight) {
+        ModelPart.Cube[] cubes = new ModelPart.Cube[cubeDefs.size()];
+        for (int i = 0; i < cubes.length; i++) {
+            cubes[i] = cubeDefs.get(i).bake(texWidth, texHeight);
+        }
+        return List.of(cubes);
+    }
+
+    // Part definitions do not override equals, so they are compared by identity
+    private record Key(PartDefinition partDef, int texWidth, int texHeight) {}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.mojang.logging.LogUtils;
+import me.sizableshrimp.entitymodeljson.animation.EntityAnimationJsonReloadListener;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.ResourceManager;
+import net.minecraft.server.packs.resources.ResourceManagerReloadListener;
+import net.minecraftforge.event.TickEvent;
+import net.minecraftforge.fml.ModList;
+import net.minecraftforge.fml.loading.FMLLoader;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Watches folder resource packs and mod resources for changes to entity models and animations during development,
+ * and hot reloads only the changed files instead of requiring a full resource reload.
+ * <p>
+ * File events are collected on a background thread by a {@link ResourceChangeWatcher} and applied on the main thread
+ * once no new events have arrived for a short period, so that editors which write a file in multiple steps only cause one reload.
+ * The watched directories are collected again after every full resource reload, which also discards any pending changes.
+ */
+public class DevResourceWatcher implements ResourceManagerReloadListener {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final String FOLDER_PACK_PREFIX = "file/";
+    private static final long QUIET_PERIOD_MILLIS = 250;
+    private final EntityModelJsonReloadListener modelListener;
+    private final ResourceChangeWatcher watcher = new ResourceChangeWatcher();
+
+    public DevResourceWatcher(EntityModelJsonReloadListener modelListener) {
+        this.modelListener = modelListener;
+    }
+
+    public static boolean isEnabled() {
+        return !FMLLoader.isProduction() || EntityModelJsonConfig.CLIENT.watchResources.get();
+    }
+
+    @Override
+    public void onResourceManagerReload(ResourceManager resourceManager) {
+        // A full reload already picked up every pending change
+        this.watcher.stop();
+
+        if (isEnabled()) {
+            List<Path> assetRoots = collectAssetRoots();
+            try {
+                this.watcher.start(assetRoots);
+                LOGGER.info("Watching {} directories in {} asset roots for entity model and animation changes", this.watcher.getWatchedDirectoryCount(), assetRoots.size());
+            } catch (IOException e) {
+                LOGGER.error("Failed to watch resources for entity model and animation changes", e);
+            }
+        }
+    }
+
+    public void onClientTick(TickEvent.ClientTickEvent event) {
+        if (event.phase != TickEvent.Phase.END || !this.watcher.hasPendingChanges())
+            return;
+
+        Minecraft mc = Minecraft.getInstance();
+        // Wait for any full reload to finish, as well as for editors to finish writing
+        if (mc.getOverlay() != null || this.watcher.getMillisSinceLastEvent() < QUIET_PERIOD_MILLIS)
+            return;
+
+        Set<ModelLayerLocation> layers = this.watcher.takePendingLayers();
+        Set<ResourceLocation> animations = this.watcher.takePendingAnimations();
+
+        ResourceManager resourceManager = mc.getResourceManager();
+        Set<String> namespaces = resourceManager.getNamespaces();
+        if (layers.stream().anyMatch(layer -> !namespaces.contains(layer.getModel().getNamespace()))
+                || animations.stream().anyMatch(id -> !namespaces.contains(id.getNamespace()))) {
+            // The resource manager only serves the namespaces which existed during the last full reload
+            LOGGER.info("Entity models or animations were added in a new namespace, reloading all resources");
+            mc.reloadResourcePacks();
+            return;
+        }
+
+        boolean changed = false;
+        if (!layers.isEmpty())
+            changed = !this.modelListener.reloadLayers(resourceManager, layers).isEmpty();
+        if (!animations.isEmpty()) {
+            EntityAnimationJsonReloadListener.reloadAnimations(resourceManager, animations);
+            changed = true;
+        }
+
+        if (changed) {
+            // Renderers bake their models and look up their animations when they are created, so they need to be created again
+            mc.getEntityRenderDispatcher().onResourceManagerReload(resourceManager);
+            mc.getBlockEntityRenderDispatcher().onResourceManagerReload(resourceManager);
+        }
+    }
+
+    private static List<Path> collectAssetRoots() {
+        List<Path> assetRoots = new ArrayList<>();
+        Minecraft mc = Minecraft.getInstance();
+
+        for (String packId : mc.getResourcePackRepository().getSelectedIds()) {
+            if (packId.startsWith(FOLDER_PACK_PREFIX))
+                assetRoots.add(mc.getResourcePackDirectory().toPath().resolve(packId.substring(FOLDER_PACK_PREFIX.length())).resolve("assets"));
+        }
+
+        ModList.get().getModFiles().forEach(modFileInfo -> {
+            Path assetRoot = modFileInfo.getFile().findResource("assets");
+            // Only exploded mod resources from the development workspace can be watched, jars can't change at runtime anyway
+            if (assetRoot.getFileSystem() == FileSystems.getDefault())
+                assetRoots.add(assetRoot);
+        });
+
+        assetRoots.removeIf(path -> !Files.isDirectory(path));
+        return assetRoots;
+    }
+}
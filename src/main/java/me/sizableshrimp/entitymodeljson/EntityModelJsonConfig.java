@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraftforge.common.ForgeConfigSpec;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.List;
+
+public class EntityModelJsonConfig {
+    public static final ForgeConfigSpec CLIENT_SPEC;
+    public static final Client CLIENT;
+
+    static {
+        Pair<Client, ForgeConfigSpec> pair = new ForgeConfigSpec.Builder().configure(Client::new);
+        CLIENT = pair.getLeft();
+        CLIENT_SPEC = pair.getRight();
+    }
+
+    public static class Client {
+        public final ForgeConfigSpec.BooleanValue modelCache;
+        public final ForgeConfigSpec.BooleanValue lazyDecoding;
+        public final ForgeConfigSpec.BooleanValue lazyAnimations;
+        public final ForgeConfigSpec.BooleanValue batchPoses;
+        public final ForgeConfigSpec.IntValue poseQuantization;
+        public final ForgeConfigSpec.BooleanValue reduceKeyframes;
+        public final ForgeConfigSpec.DoubleValue keyframeTolerance;
+        public final ForgeConfigSpec.DoubleValue timestampQuantization;
+        public final ForgeConfigSpec.DoubleValue targetQuantization;
+        public final ForgeConfigSpec.BooleanValue bakePoses;
+        public final ForgeConfigSpec.IntValue bakeSampleRate;
+        public final ForgeConfigSpec.IntValue bakeBudget;
+        public final ForgeConfigSpec.BooleanValue lodEnabled;
+        public final ForgeConfigSpec.ConfigValue<List<? extends Integer>> lodDistances;
+        public final ForgeConfigSpec.ConfigValue<List<? extends Integer>> lodUpdateIntervals;
+        public final ForgeConfigSpec.IntValue lodTopLevelOnlyBand;
+        public final ForgeConfigSpec.BooleanValue watchResources;
+
+        private Client(ForgeConfigSpec.Builder builder) {
+            builder.comment("Settings for loading JSON entity models").push("models");
+            this.modelCache = builder
+                    .comment("If true, decoded entity models are cached on disk so that unchanged files can skip JSON parsing on the next launch")
+                    .define("cache", true);
+            this.lazyDecoding = builder
+                    .comment("If true, entity models are only read during a reload and are decoded when they are first used.",
+                            "Speeds up reloads with many unused models, but moves decoding onto the thread that first bakes each model and skips the model cache")
+                    .define("lazyDecoding", false);
+            builder.pop();
+
+            builder.comment("Settings for playing entity animations").push("animations");
+            this.lazyAnimations = builder
+                    .comment("If true, entity animations are only read during a reload and are decoded when they are first requested.",
+                            "Animations listed in a pack's animations/warmup.json are still decoded during the reload")
+                    .define("lazyDecoding", false);
+            this.batchPoses = builder
+                    .comment("If true, entities playing the same animation at the same time during a frame share one sampled pose instead of sampling it each")
+                    .define("batchPoses", true);
+            this.poseQuantization = builder
+                    .comment("The step in milliseconds that animation times are rounded down to when batching poses, so that more entities can share a pose.",
+                            "0 or 1 only shares exactly equal times, which keeps animations identical to vanilla playback;",
+                            "higher values share more poses but play every batched animation at a slightly earlier time")
+                    .defineInRange("poseQuantization", 0, 0, 50);
+
+            this.reduceKeyframes = builder
+                    .comment("If true, keyframes which can be reconstructed from the keyframes around them within the tolerance are removed when animations are loaded")
+                    .define("reduceKeyframes", false);
+            this.keyframeTolerance = builder
+                    .comment("The maximum error of any target component that removing a keyframe may cause.",
+                            "Rotations are in radians, positions in pixels, and scales in multiples of the original size")
+                    .defineInRange("keyframeTolerance", 0.001, 0.0, 1.0);
+            this.timestampQuantization = builder
+                    .comment("The step in seconds that keyframe timestamps are rounded to before keyframes are reduced; 0 keeps them as is.",
+                            "Saves no memory unless reduceKeyframes is true, since quantizing only lets more keyframes be removed")
+                    .defineInRange("timestampQuantization", 0.0, 0.0, 1.0);
+            this.targetQuantization = builder
+                    .comment("The step that keyframe target components are rounded to before keyframes are reduced; 0 keeps them as is.",
+                            "Saves no memory unless reduceKeyframes is true, since quantizing only lets more keyframes be removed")
+                    .defineInRange("targetQuantization", 0.0, 0.0, 1.0);
+
+            this.bakePoses = builder
+                    .comment("If true, looping animations with a bake hint have their poses baked into tables when loaded, which playback interpolates between")
+                    .define("bakePoses", false);
+            this.bakeSampleRate = builder
+                    .comment("The number of poses baked per second of an animation, unless its bake hint specifies a sample rate")
+                    .defineInRange("bakeSampleRate", 30, 1, 240);
+            this.bakeBudget = builder
+                    .comment("The maximum size in KiB of the baked poses of one animation; animations over the budget are sampled live")
+                    .defineInRange("bakeBudget", 256, 1, 65536);
+
+            builder.comment("Level of detail for animations of entities far away from the camera.",
+                    "Only applies to animations played with the entity they are rendered for").push("lod");
+            this.lodEnabled = builder
+                    .comment("If true, animations of far away entities are updated less often or only partially")
+                    .define("enabled", false);
+            this.lodDistances = builder
+                    .comment("The distances in blocks at which each distance band after the first starts")
+                    .defineList("distances", List.of(24, 48, 96), o -> o instanceof Integer i && i >= 0);
+            this.lodUpdateIntervals = builder
+                    .comment("The update interval in milliseconds of each distance band, starting with the nearest band; 0 updates every frame.",
+                            "Bands without an interval use the interval of the last band listed")
+                    .defineList("updateIntervals", List.of(0, 50, 100, 200), o -> o instanceof Integer i && i >= 0);
+            this.lodTopLevelOnlyBand = builder
+                    .comment("The first distance band in which only bones that are direct children of the model root are animated")
+                    .defineInRange("topLevelOnlyBand", 3, 0, Integer.MAX_VALUE);
+            builder.pop();
+            builder.pop();
+
+            builder.comment("Settings for developing entity models and animations").push("development");
+            this.watchResources = builder
+                    .comment("If true, folder resource packs and mod resources are watched for changes to entity models and animations, which are then hot reloaded.",
+                            "This is always enabled in a development environment")
+                    .define("watchResources", false);
+            builder.pop();
+        }
+    }
+}
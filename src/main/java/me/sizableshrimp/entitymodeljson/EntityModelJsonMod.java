@@ -23,7 +23,9 @@
 package me.sizableshrimp.entitymodeljson;
 
 import com.mojang.logging.LogUtils;
+import me.sizableshrimp.entitymodeljson.animation.AnimationLod;
 import me.sizableshrimp.entitymodeljson.animation.EntityAnimationJsonReloadListener;
+import me.sizableshrimp.entitymodeljson.animation.PoseBatching;
 import me.sizableshrimp.entitymodeljson.registry.AnimationTargetRegistry;
 import me.sizableshrimp.entitymodeljson.registry.InterpolationRegistry;
 import net.minecraft.client.Minecraft;
@@ -31,11 +33,13 @@ import net.minecraft.server.packs.resources.PreparableReloadListener;
 import net.minecraft.server.packs.resources.ReloadableResourceManager;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.client.event.RegisterClientReloadListenersEvent;
+import net.minecraftforge.common.MinecraftForge;
 import net.minecraftforge.eventbus.api.IEventBus;
 import net.minecraftforge.eventbus.api.SubscribeEvent;
 import net.minecraftforge.fml.IExtensionPoint;
 import net.minecraftforge.fml.ModLoadingContext;
 import net.minecraftforge.fml.common.Mod;
+import net.minecraftforge.fml.config.ModConfig;
 import net.minecraftforge.fml.javafmlmod.FMLJavaModLoadingContext;
 import net.minecraftforge.fml.loading.FMLLoader;
 import org.slf4j.Logger;
@@ -57,6 +61,10 @@ public class EntityModelJsonMod {
 
             InterpolationRegistry.subscribe(modEventBus);
             AnimationTargetRegistry.subscribe(modEventBus);
+
+            ModLoadingContext.get().registerConfig(ModConfig.Type.CLIENT, EntityModelJsonConfig.CLIENT_SPEC);
+            MinecraftForge.EVENT_BUS.addListener(PoseBatching::onRenderTick);
+            MinecraftForge.EVENT_BUS.addListener(AnimationLod::onRenderTick);
         }
     }
 
@@ -68,11 +76,17 @@ public class EntityModelJsonMod {
         int entityModelsIdx = listeners.indexOf(mc.getEntityModels());
         // We need to place this reload listener right after entity model sets,
         // so that the layer definitions will exist by the time entity renderers bake them
-        listeners.add(entityModelsIdx + 1, new EntityModelJsonReloadListener());
+        EntityModelJsonReloadListener entityModelListener = new EntityModelJsonReloadListener();
+        listeners.add(entityModelsIdx + 1, entityModelListener);
 
         int entityRenderDispatcherIdx = listeners.indexOf(mc.getEntityRenderDispatcher());
         // We need to place this reload listener right before the entity render dispatcher,
         // so that the animation definitions will exist by the time that entity renderers are created
         listeners.add(Math.max(0, entityRenderDispatcherIdx - 1), new EntityAnimationJsonReloadListener());
+
+        // The resource watcher runs last, so that hot reloads always apply on top of a completed full reload
+        DevResourceWatcher resourceWatcher = new DevResourceWatcher(entityModelListener);
+        event.registerReloadListener(resourceWatcher);
+        MinecraftForge.EVENT_BUS.addListener(resourceWatcher::onClientTick);
     }
 }
@@ -19,128 +19,163 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-
 package me.sizableshrimp.entitymodeljson;
 
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.MultimapBuilder;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
 import com.mojang.logging.LogUtils;
-import com.mojang.serialization.JsonOps;
+import net.minecraft.SharedConstants;
+import net.minecraft.Util;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.model.geom.EntityModelSet;
 import net.minecraft.client.model.geom.ModelLayerLocation;
-import net.minecraft.client.model.geom.builders.LayerDefinition;
 import net.minecraft.resources.ResourceLocation;
 import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
 import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
-import net.minecraft.util.GsonHelper;
 import net.minecraft.util.profiling.ProfilerFiller;
+import net.minecraftforge.fml.ModList;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
-import java.io.IOException;
-import java.io.Reader;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
-public class EntityModelJsonReloadListener extends SimplePreparableReloadListener<Map<ResourceLocation, List<JsonElement>>> {
+/**
+ * Adapts the {@link EntityModelPipeline} to a reload listener, which reads from the resource manager and publishes to {@link EntityModelSet#roots}.
+ */
+public class EntityModelJsonReloadListener extends SimplePreparableReloadListener<EntityModelPipeline.Prepared> {
     private static final Logger LOGGER = LogUtils.getLogger();
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
-    private static final String PATH_SUFFIX = ".json";
-    private static final int PATH_SUFFIX_LENGTH = ".json".length();
-    private static final String DIRECTORY = "models/entity";
+    private static volatile Set<ModelLayerLocation> changedLayers = Set.of();
+    @Nullable
+    private static volatile EntityModelPipeline lastPipeline;
+    private final EntityModelPipeline pipeline = new EntityModelPipeline(Util.backgroundExecutor());
 
     @Override
-    protected Map<ResourceLocation, List<JsonElement>> prepare(ResourceManager resourceManager, ProfilerFiller profiler) {
-        Map<ResourceLocation, List<JsonElement>> entityModelJsons = new HashMap<>();
-
-        for (Map.Entry<ResourceLocation, List<Resource>> entry : resourceManager.listResourceStacks(DIRECTORY, id -> id.getPath().endsWith(".json")).entrySet()) {
-            ResourceLocation fullLocation = entry.getKey();
-            String fullPath = fullLocation.getPath();
-            ResourceLocation subLocation = new ResourceLocation(fullLocation.getNamespace(), fullPath.substring(DIRECTORY.length() + 1, fullPath.length() - PATH_SUFFIX_LENGTH));
-
-            for (Resource resource : entry.getValue()) {
-                try (Reader reader = resource.openAsReader()) {
-                    entityModelJsons.computeIfAbsent(subLocation, k -> new ArrayList<>()).add(GsonHelper.fromJson(GSON, reader, JsonElement.class));
-                } catch (IllegalArgumentException | IOException | JsonParseException e) {
-                    LOGGER.error("Couldn't parse data file {} from {}", fullLocation, subLocation, e);
-                }
-            }
+    protected EntityModelPipeline.Prepared prepare(ResourceManager resourceManager, ProfilerFiller profiler) {
+        StageTimings timings = new StageTimings(profiler);
+        if (EntityModelJsonConfig.CLIENT.lazyDecoding.get()) {
+            timings.start("list");
+            var resourceStacks = resourceManager.listResourceStacks(EntityModelPipeline.DIRECTORY, id -> id.getPath().endsWith(EntityModelPipeline.PATH_SUFFIX));
+            // Only the raw bytes are read here; each model is decoded when it is first used
+            return this.pipeline.index(resourceStacks, timings);
         }
 
-        return entityModelJsons;
+        timings.start("cache");
+        LayerDefinitionCache cache = loadCache();
+
+        timings.start("list");
+        var resourceStacks = resourceManager.listResourceStacks(EntityModelPipeline.DIRECTORY, id -> id.getPath().endsWith(EntityModelPipeline.PATH_SUFFIX));
+
+        // Parsing and decoding happen on the background executor, so they are recorded per file as JFR events as well
+        EntityModelPipeline.Decoded decoded = this.pipeline.decode(resourceStacks, cache, timings);
+
+        timings.start("cache");
+        if (cache != null)
+            cache.save(true);
+        timings.end();
+
+        return decoded;
     }
 
     @Override
-    protected void apply(Map<ResourceLocation, List<JsonElement>> entityModelJsons, ResourceManager resourceManager, ProfilerFiller profiler) {
-        // Only contains layer definitions we read from JSON
-        Map<ModelLayerLocation, LayerDefinition> jsonRoots = new HashMap<>();
+    protected void apply(EntityModelPipeline.Prepared prepared, ResourceManager resourceManager, ProfilerFiller profiler) {
+        lastPipeline = this.pipeline;
+        EntityModelPipeline.LazyUsage lazyUsage = this.pipeline.getLazyUsage();
+        if (lazyUsage.total() > 0)
+            LOGGER.info("{} of {} lazily decoded entity model layers were never used before this reload", lazyUsage.untouched(), lazyUsage.total());
 
-        // Get the entity model roots here
+        // The entity model roots only contain the roots defined in code at this point
         EntityModelSet entityModels = Minecraft.getInstance().getEntityModels();
-        // Contains a list of previous layer definitions for a given location, both code and JSON, for models declared multiple times
-        // The list is cleared for a given location when the previous has overwrite set to true
-        var prevRoots = MultimapBuilder.hashKeys().arrayListValues().<ModelLayerLocation, LayerDefinition>build();
-
-        for (var entry : entityModelJsons.entrySet()) {
-            ModelLayerLocation layerLocation = mapPathToModelLayerLoc(entry.getKey());
-            if (layerLocation == null)
-                continue;
-
-            for (JsonElement jsonElement : entry.getValue()) {
-                EntityModelCodecHolder.LAYER_DEFINITION_CODEC.parse(JsonOps.INSTANCE, jsonElement)
-                        .resultOrPartial(e -> LOGGER.warn("Error while parsing entity model json with id {} - {}", entry.getKey(), e))
-                        .ifPresent(layerDef -> {
-                            LayerDefinition prevLayerDef = jsonRoots.get(layerLocation); // Check for previously defined layer in an earlier resource pack
-                            if (prevLayerDef == null)
-                                prevLayerDef = entityModels.roots.get(layerLocation); // Fallback to code root
-
-                            if (prevLayerDef != null) {
-                                if (prevLayerDef.mesh instanceof ParentedMeshDefinition parentedMesh && parentedMesh.isOverwrite())
-                                    prevRoots.removeAll(layerLocation);
-                                prevRoots.put(layerLocation, prevLayerDef);
-
-                                if (layerDef instanceof InheritingLayerDefinition inheritingLayerDef && inheritingLayerDef.getMaterial() == null) {
-                                    inheritingLayerDef.setMaterial(prevLayerDef instanceof InheritingLayerDefinition inheritingPrev
-                                            ? inheritingPrev.getMaterial()
-                                            : prevLayerDef.material);
-                                }
-                            }
-
-                            jsonRoots.put(layerLocation, layerDef);
-                        });
-            }
+        if (prepared instanceof EntityModelPipeline.Indexed indexed) {
+            EntityModelPipeline.Result result = this.pipeline.applyLazy(indexed, entityModels.roots, new StageTimings(profiler));
+            publish(result);
+            LOGGER.info("Indexed {} entity model layers for lazy decoding out of {} ({})", indexed.files().size(), result.roots().size(), result.timings());
+            return;
         }
 
-        // Contains the final merged view of json roots + code roots, with json roots taking precedence
-        var roots = new HashMap<>(entityModels.roots);
+        EntityModelPipeline.Result result = this.pipeline.apply((EntityModelPipeline.Decoded) prepared, entityModels.roots, new StageTimings(profiler));
+        publish(result);
+        LOGGER.info("Folded {} duplicate entity model layer definitions out of {}; {} changed since the last reload ({})",
+                result.folded(), result.roots().size(), result.changed().size(), result.timings());
+    }
 
-        // Add all the json defined layer definitions, possibly overwriting ones written in code
-        roots.putAll(jsonRoots);
+    /**
+     * Reads the given JSON model layers again, along with every JSON model layer which inherits from them,
+     * and swaps only those entries in {@link EntityModelSet#roots}.
+     * The layer definitions of all other locations are left untouched.
+     * Must be called on the main thread after a full reload has completed.
+     *
+     * @param resourceManager The resource manager to read the model layers from
+     * @param locations The model layer locations whose files were changed, added, or removed
+     * @return The model layer locations whose layer definitions were swapped
+     */
+    public Set<ModelLayerLocation> reloadLayers(ResourceManager resourceManager, Collection<ModelLayerLocation> locations) {
+        EntityModelPipeline.Result result = reloadLayers(this.pipeline, locations, resourceManager::getResourceStack, loadCache());
+
+        publish(result);
+        LOGGER.info("Hot reloaded {} entity model layers; {} changed ({})", locations.size(), result.changed().size(), result.timings());
+        return result.changed();
+    }
 
-        // Calculate inheritance
-        jsonRoots.forEach((location, layer) -> {
-            if (layer.mesh instanceof ParentedMeshDefinition parentedMeshDef) {
-                parentedMeshDef.calculateInheritance(location, prevRoots, roots);
-            }
-        });
+    /**
+     * Reloads the given JSON model layers like {@link #reloadLayers(ResourceManager, Collection)}, but returns the result instead of publishing it,
+     * so that it does not depend on a running client.
+     *
+     * @param pipeline The pipeline which published the current layer definitions
+     * @param locations The model layer locations whose files were changed, added, or removed
+     * @param resourceStacks Returns the resource stack of a file under {@value EntityModelPipeline#DIRECTORY} by its full location
+     * @param cache The model cache, which is saved afterwards, or {@code null} if it is disabled
+     */
+    public static EntityModelPipeline.Result reloadLayers(EntityModelPipeline pipeline, Collection<ModelLayerLocation> locations,
+            Function<ResourceLocation, List<Resource>> resourceStacks, @Nullable LayerDefinitionCache cache) {
+        EntityModelPipeline.Result result = pipeline.reload(locations, resourceStacks, cache, new StageTimings());
+        // Only the affected layers were looked up, so the entries of every other layer must be kept
+        if (cache != null)
+            cache.save(false);
+        return result;
+    }
 
-        entityModels.roots = ImmutableMap.copyOf(roots);
+    private static void publish(EntityModelPipeline.Result result) {
+        // Geometry baked from layer definitions that are no longer used must not be kept around
+        BakedGeometryCache.retainAll(result.roots().values());
+        Minecraft.getInstance().getEntityModels().roots = result.roots();
+        changedLayers = result.changed();
     }
 
-    private static ModelLayerLocation mapPathToModelLayerLoc(ResourceLocation path) {
-        int idx = path.getPath().indexOf('/');
-        if (idx == -1) {
-            LOGGER.error("Entity model path of {} was invalid, must contain at least one folder", path);
-            return null;
-        }
+    /**
+     * Returns the model layer locations whose layer definitions changed during the last reload,
+     * including locations that were added or removed.
+     * Every other location in {@link EntityModelSet#roots} kept the exact same layer definition instance as before the last reload,
+     * so consumers can use this to limit re-baking.
+     */
+    public static Set<ModelLayerLocation> getChangedLayers() {
+        return changedLayers;
+    }
+
+    /**
+     * Returns how many of the layer definitions published by the last lazy reload have been used so far.
+     * Both counts are zero if {@link EntityModelJsonConfig.Client#lazyDecoding lazy decoding} was off during the last reload.
+     */
+    public static EntityModelPipeline.LazyUsage getLazyUsage() {
+        EntityModelPipeline pipeline = lastPipeline;
+        return pipeline == null ? new EntityModelPipeline.LazyUsage(0, 0) : pipeline.getLazyUsage();
+    }
+
+    @Nullable
+    private static LayerDefinitionCache loadCache() {
+        return EntityModelJsonConfig.CLIENT.modelCache.get() ? LayerDefinitionCache.load(getCachePath(), getCacheVersion()) : null;
+    }
+
+    private static Path getCachePath() {
+        return Minecraft.getInstance().gameDirectory.toPath().resolve(EntityModelJsonMod.MODID).resolve("model_cache.bin");
+    }
 
-        return new ModelLayerLocation(new ResourceLocation(path.getNamespace(), path.getPath().substring(idx + 1)), path.getPath().substring(0, idx));
+    private static String getCacheVersion() {
+        String modVersion = ModList.get().getModContainerById(EntityModelJsonMod.MODID)
+                .map(container -> container.getModInfo().getVersion().toString())
+                .orElse("unknown");
+        return SharedConstants.getCurrentVersion().getName() + "-" + modVersion;
     }
 }
@@ -0,0 +1,676 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.mojang.logging.LogUtils;
+import com.mojang.serialization.JsonOps;
+import me.sizableshrimp.entitymodeljson.jfr.EntityModelDecodeEvent;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
+import net.minecraft.util.GsonHelper;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Loads JSON entity models on top of the entity model layers defined in code, without depending on a Minecraft client instance.
+ * <p>
+ * The pipeline is split into two steps, which mirror the two steps of a reload listener.
+ * {@link #decode(Map, LayerDefinitionCache, StageTimings)} reads and decodes a resource listing and is safe to call from any thread.
+ * {@link #apply(Decoded, Map, StageTimings)} merges the decoded layer definitions on top of the code roots, calculates inheritance,
+ * and folds duplicates into the final roots.
+ * <p>
+ * A pipeline remembers the result of the last {@link #apply(Decoded, Map, StageTimings) apply}, so that layer definitions which did not change
+ * keep their previous instance and so that single layers can be {@link #reload(Collection, Function, LayerDefinitionCache, StageTimings) reloaded}
+ * afterwards.
+ * <p>
+ * In lazy mode, {@link #index(Map, StageTimings)} only reads the raw bytes of each file and {@link #applyLazy(Indexed, Map, StageTimings)}
+ * publishes a {@link LazyLayerDefinition} for every JSON location, which is decoded, merged, and inheritance-resolved on first access.
+ */
+public class EntityModelPipeline {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    public static final String DIRECTORY = "models/entity";
+    public static final String PATH_SUFFIX = ".json";
+    private final Executor executor;
+    private volatile Map<ModelLayerLocation, LayerDefinition> publishedRoots = Map.of();
+    private Map<ModelLayerLocation, HashCode> fingerprints = Map.of();
+    private Map<ModelLayerLocation, ModelLayerLocation> jsonParents = Map.of();
+    private Map<ModelLayerLocation, LayerDefinition> codeRoots = Map.of();
+    private volatile List<LazyMeshDefinition> lazyMeshes = List.of();
+
+    /**
+     * @param executor The executor used to decode files and to resolve inheritance in parallel
+     */
+    public EntityModelPipeline(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Runs both steps of the pipeline on the calling thread.
+     *
+     * @param resourceStacks The resource stacks of every file under {@value #DIRECTORY}, keyed by their full location, in resource pack order
+     * @param codeRoots The layer definitions defined in code
+     * @param cache The model cache to use, or {@code null} to always parse files
+     * @param timings The timings to record each stage to
+     */
+    public Result run(Map<ResourceLocation, List<Resource>> resourceStacks, Map<ModelLayerLocation, LayerDefinition> codeRoots,
+            @Nullable LayerDefinitionCache cache, StageTimings timings) {
+        return apply(decode(resourceStacks, cache, timings), codeRoots, timings);
+    }
+
+    /**
+     * Reads and decodes all resources in the listing.
+     * Each resource is read, parsed, and decoded on the executor, similar to how texture atlases load their sprites.
+     *
+     * @param resourceStacks The resource stacks of every file under {@value #DIRECTORY}, keyed by their full location, in resource pack order
+     * @param cache The model cache to use, or {@code null} to always parse files
+     * @param timings The timings to record each stage to
+     */
+    public Decoded decode(Map<ResourceLocation, List<Resource>> resourceStacks, @Nullable LayerDefinitionCache cache, StageTimings timings) {
+        timings.start("decode");
+        // The futures for a given location are kept in resource pack order so that the overwrite/merge semantics stay deterministic.
+        Map<ModelLayerLocation, List<CompletableFuture<DecodedFile>>> entityModelFutures = new HashMap<>();
+        // The interner only lives until the end of apply, so that it does not pin memory
+        ModelInterner interner = new ModelInterner();
+
+        for (Map.Entry<ResourceLocation, List<Resource>> entry : resourceStacks.entrySet()) {
+            ResourceLocation fullLocation = entry.getKey();
+            String fullPath = fullLocation.getPath();
+            ResourceLocation subLocation = new ResourceLocation(fullLocation.getNamespace(), fullPath.substring(DIRECTORY.length() + 1, fullPath.length() - PATH_SUFFIX.length()));
+            ModelLayerLocation layerLocation = mapPathToModelLayerLoc(subLocation);
+            if (layerLocation == null)
+                continue;
+
+            List<CompletableFuture<DecodedFile>> futures = new ArrayList<>(entry.getValue().size());
+
+            for (Resource resource : entry.getValue()) {
+                futures.add(CompletableFuture.supplyAsync(() -> decode(fullLocation, subLocation, resource, interner, cache), this.executor));
+            }
+
+            entityModelFutures.put(layerLocation, futures);
+        }
+
+        Map<ModelLayerLocation, List<LayerDefinition>> layerDefinitions = new HashMap<>();
+        Map<ModelLayerLocation, List<HashCode>> contentHashes = new HashMap<>();
+
+        entityModelFutures.forEach((layerLocation, futures) -> {
+            List<HashCode> hashes = new ArrayList<>(futures.size());
+            for (CompletableFuture<DecodedFile> future : futures) {
+                DecodedFile decoded = future.join();
+                if (decoded.hash() != null)
+                    hashes.add(decoded.hash());
+                if (decoded.layerDef() != null)
+                    layerDefinitions.computeIfAbsent(layerLocation, k -> new ArrayList<>(futures.size())).add(decoded.layerDef());
+            }
+            contentHashes.put(layerLocation, hashes);
+        });
+        timings.end();
+
+        return new Decoded(layerDefinitions, contentHashes, interner);
+    }
+
+    /**
+     * Reads the raw bytes of all resources in the listing without decoding them, for {@link #applyLazy(Indexed, Map, StageTimings) lazy mode}.
+     *
+     * @param resourceStacks The resource stacks of every file under {@value #DIRECTORY}, keyed by their full location, in resource pack order
+     * @param timings The timings to record each stage to
+     */
+    public Indexed index(Map<ResourceLocation, List<Resource>> resourceStacks, StageTimings timings) {
+        timings.start("index");
+        Map<ModelLayerLocation, List<CompletableFuture<IndexedFile>>> fileFutures = new HashMap<>();
+
+        for (Map.Entry<ResourceLocation, List<Resource>> entry : resourceStacks.entrySet()) {
+            ResourceLocation fullLocation = entry.getKey();
+            String fullPath = fullLocation.getPath();
+            ResourceLocation subLocation = new ResourceLocation(fullLocation.getNamespace(), fullPath.substring(DIRECTORY.length() + 1, fullPath.length() - PATH_SUFFIX.length()));
+            ModelLayerLocation layerLocation = mapPathToModelLayerLoc(subLocation);
+            if (layerLocation == null)
+                continue;
+
+            List<CompletableFuture<IndexedFile>> futures = new ArrayList<>(entry.getValue().size());
+
+            for (Resource resource : entry.getValue()) {
+                futures.add(CompletableFuture.supplyAsync(() -> {
+                    try (InputStream inputStream = resource.open()) {
+                        return new IndexedFile(fullLocation, subLocation, resource.sourcePackId(), inputStream.readAllBytes());
+                    } catch (IOException e) {
+                        LOGGER.error("Couldn't read data file {} from {}", fullLocation, subLocation, e);
+                        return null;
+                    }
+                }, this.executor));
+            }
+
+            fileFutures.put(layerLocation, futures);
+        }
+
+        Map<ModelLayerLocation, List<IndexedFile>> files = new HashMap<>();
+        fileFutures.forEach((layerLocation, futures) -> {
+            List<IndexedFile> indexedFiles = new ArrayList<>(futures.size());
+            for (CompletableFuture<IndexedFile> future : futures) {
+                IndexedFile file = future.join();
+                if (file != null)
+                    indexedFiles.add(file);
+            }
+            if (!indexedFiles.isEmpty())
+                files.put(layerLocation, indexedFiles);
+        });
+        timings.end();
+
+        return new Indexed(files);
+    }
+
+    /**
+     * Merges the decoded layer definitions on top of the code roots and calculates their inheritance.
+     *
+     * @param decoded The decoded JSON layer definitions
+     * @param codeRoots The layer definitions defined in code
+     * @param timings The timings to record each stage to
+     */
+    public Result apply(Decoded decoded, Map<ModelLayerLocation, LayerDefinition> codeRoots, StageTimings timings) {
+        // The code roots are kept around so that single layers can be merged again when reloading
+        this.codeRoots = codeRoots;
+
+        timings.start("merge");
+        // Only contains layer definitions we read from JSON
+        Map<ModelLayerLocation, LayerDefinition> jsonRoots = new HashMap<>();
+        // Contains a list of previous layer definitions for a given location, both code and JSON, for models declared multiple times
+        // The list is cleared for a given location when the previous has overwrite set to true
+        var prevRoots = MultimapBuilder.hashKeys().arrayListValues().<ModelLayerLocation, LayerDefinition>build();
+        merge(decoded.layerDefinitions(), codeRoots, jsonRoots, prevRoots);
+
+        // Contains the final merged view of json roots + code roots, with json roots taking precedence
+        var roots = new HashMap<>(codeRoots);
+
+        // Add all the json defined layer definitions, possibly overwriting ones written in code
+        roots.putAll(jsonRoots);
+
+        Map<ModelLayerLocation, ModelLayerLocation> jsonParents = collectParents(jsonRoots);
+
+        // Calculate inheritance, resolving parents before their children
+        timings.start("inheritance");
+        LayerInheritanceResolver.resolve(jsonRoots, prevRoots, roots, decoded.interner(), this.executor);
+
+        // Keep the previous instance of every layer which did not change since the last run
+        timings.start("fingerprint");
+        Map<ModelLayerLocation, HashCode> fingerprints = new HashMap<>();
+        computeFingerprints(decoded.contentHashes(), jsonRoots, fingerprints);
+        for (var entry : roots.entrySet()) {
+            ModelLayerLocation location = entry.getKey();
+            LayerDefinition prevLayerDef = this.publishedRoots.get(location);
+            HashCode fingerprint = fingerprints.get(location);
+            // Lazy layer definitions are never compared, since that would decode them
+            boolean unchanged = prevLayerDef != null && !(prevLayerDef instanceof LazyLayerDefinition) && (fingerprint == null
+                    // Code roots are recreated on every reload, so they are compared by their contents instead
+                    ? !this.fingerprints.containsKey(location) && LayerDefinitionDeduplicator.isIdentical(prevLayerDef, entry.getValue())
+                    : fingerprint.equals(this.fingerprints.get(location)));
+
+            if (unchanged)
+                entry.setValue(prevLayerDef);
+        }
+
+        // Collapse identical layer definitions, such as the many copies of the humanoid armor layers, into one canonical instance
+        timings.start("deduplicate");
+        int folded = LayerDefinitionDeduplicator.deduplicate(roots);
+
+        timings.start("publish");
+        Result result = publish(roots, fingerprints, jsonParents, folded, timings);
+        this.lazyMeshes = List.of();
+        timings.end();
+
+        return result;
+    }
+
+    /**
+     * Publishes a {@link LazyLayerDefinition} on top of the code roots for every indexed JSON location.
+     * Each one is decoded, merged, and inheritance-resolved against the roots published by this pipeline when it is first accessed.
+     * <p>
+     * Lazy layers are not fingerprinted or deduplicated, so every JSON location counts as changed.
+     *
+     * @param indexed The raw bytes of the JSON files
+     * @param codeRoots The layer definitions defined in code
+     * @param timings The timings to record each stage to
+     */
+    public Result applyLazy(Indexed indexed, Map<ModelLayerLocation, LayerDefinition> codeRoots, StageTimings timings) {
+        this.codeRoots = codeRoots;
+
+        timings.start("merge");
+        // Lazy meshes of the same run may be parents of each other, so they share one lock
+        Object lock = new Object();
+        var roots = new HashMap<>(codeRoots);
+        List<LazyMeshDefinition> lazyMeshes = new ArrayList<>(indexed.files().size());
+
+        indexed.files().forEach((location, files) -> {
+            LazyMeshDefinition mesh = new LazyMeshDefinition(location, lock, () -> resolveLazy(location, files, codeRoots));
+            lazyMeshes.add(mesh);
+            roots.put(location, new LazyLayerDefinition(mesh));
+        });
+
+        timings.start("publish");
+        Result result = publish(roots, Map.of(), Map.of(), 0, timings);
+        this.lazyMeshes = List.copyOf(lazyMeshes);
+        timings.end();
+
+        return result;
+    }
+
+    /**
+     * Decodes and merges the files of a single lazy location and calculates its inheritance.
+     * Parents are looked up in the currently published roots, so that parents swapped by a {@link #reload reload} are picked up.
+     */
+    private LayerDefinition resolveLazy(ModelLayerLocation location, List<IndexedFile> files, Map<ModelLayerLocation, LayerDefinition> codeRoots) {
+        List<LayerDefinition> layerDefinitions = new ArrayList<>(files.size());
+        for (IndexedFile file : files) {
+            EntityModelDecodeEvent event = new EntityModelDecodeEvent();
+            event.begin();
+
+            DecodedFile decoded = decode(file.fullLocation(), file.subLocation(), file.bytes(), ModelInterner.NONE, null);
+            if (decoded.layerDef() != null)
+                layerDefinitions.add(decoded.layerDef());
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.location = file.subLocation().toString();
+                event.pack = file.packId();
+                event.byteSize = file.bytes().length;
+                event.cubeCount = decoded.layerDef() == null ? 0 : countCubes(decoded.layerDef().mesh.getRoot());
+                event.commit();
+            }
+        }
+
+        Map<ModelLayerLocation, LayerDefinition> jsonRoots = new HashMap<>();
+        var prevRoots = MultimapBuilder.hashKeys().arrayListValues().<ModelLayerLocation, LayerDefinition>build();
+        merge(Map.of(location, layerDefinitions), codeRoots, jsonRoots, prevRoots);
+
+        LayerDefinition layerDef = jsonRoots.get(location);
+        if (layerDef == null) {
+            // Every file failed to decode, so fall back to the code root like an eager load would
+            LayerDefinition codeRoot = codeRoots.get(location);
+            return codeRoot == null ? new InheritingLayerDefinition(new ParentedMeshDefinition(), (MaterialDefinition) null) : codeRoot;
+        }
+
+        if (layerDef.mesh instanceof ParentedMeshDefinition parentedMesh)
+            parentedMesh.calculateInheritance(location, prevRoots, this.publishedRoots);
+
+        return layerDef;
+    }
+
+    /**
+     * Returns how many of the lazy layer definitions published by the last {@link #applyLazy(Indexed, Map, StageTimings) lazy apply}
+     * have been accessed so far. Both counts are zero if the last run was not lazy.
+     */
+    public LazyUsage getLazyUsage() {
+        List<LazyMeshDefinition> lazyMeshes = this.lazyMeshes;
+        int resolved = 0;
+        for (LazyMeshDefinition mesh : lazyMeshes) {
+            if (mesh.isResolved())
+                resolved++;
+        }
+        return new LazyUsage(lazyMeshes.size(), resolved);
+    }
+
+    /**
+     * Reads the given JSON model layers again, along with every JSON model layer which inherits from them.
+     * The layer definitions of all other locations are kept from the last run.
+     *
+     * @param locations The model layer locations whose files were changed, added, or removed
+     * @param resourceStacks A function to get the resource stack, in resource pack order, of a full file location
+     * @param cache The model cache to use, or {@code null} to always parse files
+     * @param timings The timings to record each stage to
+     */
+    public Result reload(Collection<ModelLayerLocation> locations, Function<ResourceLocation, List<Resource>> resourceStacks,
+            @Nullable LayerDefinitionCache cache, StageTimings timings) {
+        // Every layer that inherits from a changed layer, directly or indirectly, has to calculate its inheritance again
+        Set<ModelLayerLocation> affected = new HashSet<>(locations);
+        // Lazy layers which were never accessed resolve against the new parents on their own
+        Map<ModelLayerLocation, ModelLayerLocation> knownParents = new HashMap<>(this.jsonParents);
+        for (LazyMeshDefinition mesh : this.lazyMeshes) {
+            if (mesh.isResolved() && mesh.getParent() != null)
+                knownParents.put(mesh.getLocation(), mesh.getParent());
+        }
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (var entry : knownParents.entrySet()) {
+                if (affected.contains(entry.getValue()) && affected.add(entry.getKey()))
+                    grew = true;
+            }
+        }
+
+        // Dependents whose files did not change are served by the model cache when it is enabled, so only changed files are parsed again
+        timings.start("decode");
+        ModelInterner interner = new ModelInterner();
+        Map<ModelLayerLocation, List<LayerDefinition>> layerDefinitions = new HashMap<>();
+        Map<ModelLayerLocation, List<HashCode>> contentHashes = new HashMap<>();
+
+        for (ModelLayerLocation location : affected) {
+            ResourceLocation subLocation = new ResourceLocation(location.getModel().getNamespace(), location.getLayer() + '/' + location.getModel().getPath());
+            ResourceLocation fullLocation = new ResourceLocation(subLocation.getNamespace(), DIRECTORY + '/' + subLocation.getPath() + PATH_SUFFIX);
+            List<Resource> resources = resourceStacks.apply(fullLocation);
+            List<HashCode> hashes = new ArrayList<>(resources.size());
+
+            for (Resource resource : resources) {
+                DecodedFile decoded = decode(fullLocation, subLocation, resource, interner, cache);
+                if (decoded.hash() != null)
+                    hashes.add(decoded.hash());
+                if (decoded.layerDef() != null)
+                    layerDefinitions.computeIfAbsent(location, k -> new ArrayList<>(resources.size())).add(decoded.layerDef());
+            }
+            contentHashes.put(location, hashes);
+        }
+
+        timings.start("merge");
+        Map<ModelLayerLocation, LayerDefinition> jsonRoots = new HashMap<>();
+        var prevRoots = MultimapBuilder.hashKeys().arrayListValues().<ModelLayerLocation, LayerDefinition>build();
+        merge(layerDefinitions, this.codeRoots, jsonRoots, prevRoots);
+
+        // Affected locations fall back to their code root, if any, when all of their files were removed
+        var roots = new HashMap<>(this.publishedRoots);
+        for (ModelLayerLocation location : affected) {
+            LayerDefinition codeRoot = this.codeRoots.get(location);
+            if (codeRoot == null) {
+                roots.remove(location);
+            } else {
+                roots.put(location, codeRoot);
+            }
+        }
+        roots.putAll(jsonRoots);
+
+        Map<ModelLayerLocation, ModelLayerLocation> jsonParents = knownParents;
+        jsonParents.keySet().removeAll(affected);
+        jsonParents.putAll(collectParents(jsonRoots));
+
+        // Parents outside the affected set were already resolved during an earlier run
+        timings.start("inheritance");
+        LayerInheritanceResolver.resolve(jsonRoots, prevRoots, roots, interner, this.executor);
+
+        timings.start("fingerprint");
+        Map<ModelLayerLocation, HashCode> fingerprints = new HashMap<>(this.fingerprints);
+        fingerprints.keySet().removeAll(affected);
+        computeFingerprints(contentHashes, jsonRoots, fingerprints);
+
+        timings.start("publish");
+        Result result = publish(roots, fingerprints, jsonParents, 0, timings);
+        timings.end();
+
+        return result;
+    }
+
+    private static DecodedFile decode(ResourceLocation fullLocation, ResourceLocation subLocation, Resource resource, ModelInterner interner,
+            @Nullable LayerDefinitionCache cache) {
+        byte[] bytes;
+        try (InputStream inputStream = resource.open()) {
+            bytes = inputStream.readAllBytes();
+        } catch (IOException e) {
+            LOGGER.error("Couldn't read data file {} from {}", fullLocation, subLocation, e);
+            return new DecodedFile(null, null);
+        }
+
+        // Begun after reading, so that a file which could not be read does not leave the event begun without ending it
+        EntityModelDecodeEvent event = new EntityModelDecodeEvent();
+        event.begin();
+        DecodedFile decoded = decode(fullLocation, subLocation, bytes, interner, cache);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.location = subLocation.toString();
+            event.pack = resource.sourcePackId();
+            event.byteSize = bytes.length;
+            event.cubeCount = decoded.layerDef() == null ? 0 : countCubes(decoded.layerDef().mesh.getRoot());
+            event.commit();
+        }
+
+        return decoded;
+    }
+
+    private static DecodedFile decode(ResourceLocation fullLocation, ResourceLocation subLocation, byte[] bytes, ModelInterner interner,
+            @Nullable LayerDefinitionCache cache) {
+        HashCode hash = LayerDefinitionCache.hash(bytes);
+        if (cache != null) {
+            LayerDefinition cachedLayerDef = cache.get(hash, interner);
+            if (cachedLayerDef != null)
+                return new DecodedFile(hash, cachedLayerDef);
+        }
+
+        try (Reader reader = openReader(bytes)) {
+            LayerDefinition layerDef = LayerDefinitionReader.read(reader, interner);
+            // Only layer definitions read without any errors or leniency are cached
+            if (cache != null)
+                cache.put(hash, layerDef);
+            return new DecodedFile(hash, layerDef);
+        } catch (IOException | RuntimeException e) {
+            // The streaming reader is strict, so fall back to the codec to handle lenient input and to report errors properly
+            LOGGER.debug("Falling back to codec decoding for data file {} from {} - {}", fullLocation, subLocation, e.toString());
+        }
+
+        JsonElement jsonElement;
+        try (Reader reader = openReader(bytes)) {
+            jsonElement = GsonHelper.fromJson(GSON, reader, JsonElement.class);
+        } catch (IllegalArgumentException | IOException | JsonParseException e) {
+            LOGGER.error("Couldn't parse data file {} from {}", fullLocation, subLocation, e);
+            return new DecodedFile(hash, null);
+        }
+
+        LayerDefinition layerDef = EntityModelCodecHolder.LAYER_DEFINITION_CODEC.parse(JsonOps.INSTANCE, jsonElement)
+                .resultOrPartial(e -> LOGGER.warn("Error while parsing entity model json with id {} - {}", subLocation, e))
+                .orElse(null);
+        return new DecodedFile(hash, layerDef);
+    }
+
+    private static int countCubes(PartDefinition partDef) {
+        int count = partDef.cubes.size();
+        for (PartDefinition child : partDef.children.values()) {
+            count += countCubes(child);
+        }
+        return count;
+    }
+
+    private static Reader openReader(byte[] bytes) {
+        return new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Merges the decoded layer definitions of each location, in resource pack order, on top of the code roots.
+     */
+    private static void merge(Map<ModelLayerLocation, List<LayerDefinition>> layerDefinitions, Map<ModelLayerLocation, LayerDefinition> codeRoots,
+            Map<ModelLayerLocation, LayerDefinition> jsonRoots, ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots) {
+        for (var entry : layerDefinitions.entrySet()) {
+            ModelLayerLocation layerLocation = entry.getKey();
+
+            for (LayerDefinition layerDef : entry.getValue()) {
+                LayerDefinition prevLayerDef = jsonRoots.get(layerLocation); // Check for previously defined layer in an earlier resource pack
+                if (prevLayerDef == null)
+                    prevLayerDef = codeRoots.get(layerLocation); // Fallback to code root
+
+                if (prevLayerDef != null) {
+                    if (prevLayerDef.mesh instanceof ParentedMeshDefinition parentedMesh && parentedMesh.isOverwrite())
+                        prevRoots.removeAll(layerLocation);
+                    prevRoots.put(layerLocation, prevLayerDef);
+
+                    if (layerDef instanceof InheritingLayerDefinition inheritingLayerDef && inheritingLayerDef.getMaterial() == null) {
+                        inheritingLayerDef.setMaterial(prevLayerDef instanceof InheritingLayerDefinition inheritingPrev
+                                ? inheritingPrev.getMaterial()
+                                : prevLayerDef.material);
+                    }
+                }
+
+                jsonRoots.put(layerLocation, layerDef);
+            }
+        }
+    }
+
+    private static Map<ModelLayerLocation, ModelLayerLocation> collectParents(Map<ModelLayerLocation, LayerDefinition> jsonRoots) {
+        Map<ModelLayerLocation, ModelLayerLocation> parents = new HashMap<>();
+        jsonRoots.forEach((location, layerDef) -> {
+            if (layerDef.mesh instanceof ParentedMeshDefinition parentedMesh && parentedMesh.getParent() != null)
+                parents.put(location, parentedMesh.getParent());
+        });
+        return parents;
+    }
+
+    /**
+     * Records the given roots as the result of this run and computes which locations changed since the last run.
+     */
+    private Result publish(Map<ModelLayerLocation, LayerDefinition> roots, Map<ModelLayerLocation, HashCode> fingerprints,
+            Map<ModelLayerLocation, ModelLayerLocation> jsonParents, int folded, StageTimings timings) {
+        Set<ModelLayerLocation> changed = new HashSet<>();
+        roots.forEach((location, layerDef) -> {
+            if (this.publishedRoots.get(location) != layerDef)
+                changed.add(location);
+        });
+        for (ModelLayerLocation location : this.publishedRoots.keySet()) {
+            if (!roots.containsKey(location))
+                changed.add(location);
+        }
+
+        ImmutableMap<ModelLayerLocation, LayerDefinition> publishedRoots = ImmutableMap.copyOf(roots);
+        this.publishedRoots = publishedRoots;
+        this.fingerprints = fingerprints;
+        this.jsonParents = jsonParents;
+
+        return new Result(publishedRoots, Set.copyOf(changed), folded, timings);
+    }
+
+    /**
+     * Computes a fingerprint for every JSON layer, which is made up of the content hashes of all of its resources in pack order
+     * along with the fingerprint of its resolved parent chain.
+     * Fingerprints already present in {@code fingerprints} are reused for parents outside of {@code jsonRoots}.
+     */
+    private static void computeFingerprints(Map<ModelLayerLocation, List<HashCode>> contentHashes, Map<ModelLayerLocation, LayerDefinition> jsonRoots,
+            Map<ModelLayerLocation, HashCode> fingerprints) {
+        Set<ModelLayerLocation> visiting = new HashSet<>();
+        for (ModelLayerLocation location : jsonRoots.keySet()) {
+            computeFingerprint(location, contentHashes, jsonRoots, fingerprints, visiting);
+        }
+    }
+
+    @Nullable
+    private static HashCode computeFingerprint(ModelLayerLocation location, Map<ModelLayerLocation, List<HashCode>> contentHashes,
+            Map<ModelLayerLocation, LayerDefinition> jsonRoots, Map<ModelLayerLocation, HashCode> fingerprints, Set<ModelLayerLocation> visiting) {
+        HashCode fingerprint = fingerprints.get(location);
+        if (fingerprint != null || !jsonRoots.containsKey(location) || !visiting.add(location))
+            return fingerprint;
+
+        @SuppressWarnings("UnstableApiUsage")
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (HashCode hash : contentHashes.getOrDefault(location, List.of())) {
+            hasher.putBytes(hash.asBytes());
+        }
+        if (jsonRoots.get(location).mesh instanceof ParentedMeshDefinition parentedMesh && parentedMesh.getParent() != null) {
+            hasher.putString(parentedMesh.getParent().toString(), StandardCharsets.UTF_8);
+            HashCode parentFingerprint = computeFingerprint(parentedMesh.getParent(), contentHashes, jsonRoots, fingerprints, visiting);
+            if (parentFingerprint != null)
+                hasher.putBytes(parentFingerprint.asBytes());
+        }
+        visiting.remove(location);
+
+        fingerprint = hasher.hash();
+        fingerprints.put(location, fingerprint);
+        return fingerprint;
+    }
+
+    @Nullable
+    static ModelLayerLocation mapPathToModelLayerLoc(ResourceLocation path) {
+        int idx = path.getPath().indexOf('/');
+        if (idx == -1) {
+            LOGGER.error("Entity model path of {} was invalid, must contain at least one folder", path);
+            return null;
+        }
+
+        return new ModelLayerLocation(new ResourceLocation(path.getNamespace(), path.getPath().substring(idx + 1)), path.getPath().substring(0, idx));
+    }
+
+    /**
+     * The result of the first step of the pipeline; either {@link Decoded} or, in lazy mode, {@link Indexed}.
+     */
+    public sealed interface Prepared permits Decoded, Indexed {}
+
+    /**
+     * The decoded JSON layer definitions and the content hashes of all resources for each location, in resource pack order,
+     * along with the interner used for this run.
+     */
+    public record Decoded(Map<ModelLayerLocation, List<LayerDefinition>> layerDefinitions, Map<ModelLayerLocation, List<HashCode>> contentHashes,
+            ModelInterner interner) implements Prepared {}
+
+    /**
+     * The result of a run of the pipeline.
+     *
+     * @param roots The merged code + JSON-defined map of model layer locations to layer definition roots
+     * @param changed The model layer locations whose layer definitions changed since the last run, including added and removed locations;
+     * every other location kept the exact same layer definition instance
+     * @param folded The number of layer definitions which were folded into an identical layer definition
+     * @param timings The timings of each stage of the run
+     */
+    public record Result(ImmutableMap<ModelLayerLocation, LayerDefinition> roots, Set<ModelLayerLocation> changed, int folded, StageTimings timings) {}
+
+    /**
+     * The raw bytes of the JSON files for each location, in resource pack order, read by {@link #index(Map, StageTimings)}.
+     */
+    public record Indexed(Map<ModelLayerLocation, List<IndexedFile>> files) implements Prepared {}
+
+    /**
+     * @param packId The id of the resource pack the file was read from, for diagnostics
+     */
+    public record IndexedFile(ResourceLocation fullLocation, ResourceLocation subLocation, String packId, byte[] bytes) {}
+
+    /**
+     * @param total The number of lazy layer definitions published by the last lazy run
+     * @param resolved The number of those which have been accessed and decoded
+     */
+    public record LazyUsage(int total, int resolved) {
+        public int untouched() {
+            return this.total - this.resolved;
+        }
+    }
+
+    private record DecodedFile(@Nullable HashCode hash, @Nullable LayerDefinition layerDef) {}
+}
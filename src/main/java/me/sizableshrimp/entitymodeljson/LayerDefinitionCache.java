@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An on-disk cache of decoded JSON layer definitions, keyed by a hash of the raw bytes of each resource.
+ * <p>
+ * The whole cache is invalidated when the {@link LayerDefinitionSerializer#FORMAT_VERSION binary format} or the given version string changes.
+ * If the cache file is corrupt, it is ignored and rewritten on the next {@link #save(boolean) save}.
+ * Entries that were not used during a full reload are dropped when saving, while saving after a partial reload keeps them.
+ * <p>
+ * This class is thread-safe, so it can be queried from multiple decoding tasks at once.
+ */
+public class LayerDefinitionCache {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int MAGIC = 0x454D4A43; // EMJC
+    @SuppressWarnings("UnstableApiUsage")
+    private static final HashFunction HASH_FUNCTION = Hashing.sha256();
+    private final Path path;
+    private final String version;
+    private final Map<HashCode, byte[]> entries;
+    private final Set<HashCode> usedHashes = ConcurrentHashMap.newKeySet();
+    private volatile boolean dirty;
+
+    private LayerDefinitionCache(Path path, String version, Map<HashCode, byte[]> entries) {
+        this.path = path;
+        this.version = version;
+        this.entries = entries;
+    }
+
+    public static HashCode hash(byte[] bytes) {
+        return HASH_FUNCTION.hashBytes(bytes);
+    }
+
+    /**
+     * Loads the cache from the given path, or creates an empty cache if the file is missing, corrupt, or was written for a different version.
+     *
+     * @param path The path of the cache file
+     * @param version The version string of the environment; a different version than the one stored invalidates the cache
+     */
+    public static LayerDefinitionCache load(Path path, String version) {
+        Map<HashCode, byte[]> entries = new ConcurrentHashMap<>();
+        if (!Files.isRegularFile(path))
+            return new LayerDefinitionCache(path, version, entries);
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != LayerDefinitionSerializer.FORMAT_VERSION || !version.equals(input.readUTF())) {
+                LOGGER.info("Entity model cache at {} is outdated and will be rebuilt", path);
+            } else {
+                int count = input.readInt();
+                for (int i = 0; i < count; i++) {
+                    byte[] hash = new byte[input.readUnsignedByte()];
+                    input.readFully(hash);
+                    byte[] data = new byte[input.readInt()];
+                    input.readFully(data);
+                    entries.put(HashCode.fromBytes(hash), data);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Entity model cache at {} is corrupt and will be rebuilt", path, e);
+            entries.clear();
+        }
+
+        LayerDefinitionCache cache = new LayerDefinitionCache(path, version, entries);
+        // Always rewrite an invalid cache file
+        cache.dirty = entries.isEmpty();
+        return cache;
+    }
+
+    /**
+     * Returns a freshly decoded layer definition for the given content hash, or {@code null} if there is no valid cache entry for it.
+     *
+     * @param interner The interner used for all cubes, cube deformations, and part poses of the decoded layer definition
+     */
+    @Nullable
+    public LayerDefinition get(HashCode hash, ModelInterner interner) {
+        byte[] data = this.entries.get(hash);
+        if (data == null)
+            return null;
+
+        try {
+            LayerDefinition layerDef = LayerDefinitionSerializer.read(new DataInputStream(new ByteArrayInputStream(data)), interner);
+            this.usedHashes.add(hash);
+            return layerDef;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Corrupt entity model cache entry {}, falling back to JSON", hash, e);
+            this.entries.remove(hash);
+            this.dirty = true;
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given layer definition for a content hash, if it {@link LayerDefinitionSerializer#canWrite(LayerDefinition) can be serialized}.
+     * This must be called before the layer definition is merged or has its inheritance calculated.
+     */
+    public void put(HashCode hash, LayerDefinition layerDef) {
+        if (!LayerDefinitionSerializer.canWrite(layerDef))
+            return;
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(bytes)) {
+                LayerDefinitionSerializer.write(output, layerDef);
+            }
+            this.entries.put(hash, bytes.toByteArray());
+            this.usedHashes.add(hash);
+            this.dirty = true;
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't serialize entity model with hash {} for the cache", hash, e);
+        }
+    }
+
+    /**
+     * Writes the cache back to disk, if anything changed.
+     *
+     * @param complete Whether every JSON model was looked up since loading, like during a full reload.
+     * If so, only the entries used since loading are written; otherwise, such as after a hot reload of a few layers, all entries are kept.
+     */
+    public void save(boolean complete) {
+        if (!this.dirty && (!complete || this.usedHashes.size() == this.entries.size()))
+            return;
+
+        try {
+            Files.createDirectories(this.path.getParent());
+            Path tempPath = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(LayerDefinitionSerializer.FORMAT_VERSION);
+                output.writeUTF(this.version);
+
+                Map<HashCode, byte[]> usedEntries = new HashMap<>();
+                if (complete) {
+                    for (HashCode hash : this.usedHashes) {
+                        byte[] data = this.entries.get(hash);
+                        if (data != null)
+                            usedEntries.put(hash, data);
+                    }
+                } else {
+                    usedEntries.putAll(this.entries);
+                }
+
+                output.writeInt(usedEntries.size());
+                for (var entry : usedEntries.entrySet()) {
+                    byte[] hash = entry.getKey().asBytes();
+                    output.writeByte(hash.length);
+                    output.write(hash);
+                    output.writeInt(entry.getValue().length);
+                    output.write(entry.getValue());
+                }
+            }
+
+            Files.move(tempPath, this.path, StandardCopyOption.REPLACE_EXISTING);
+            this.dirty = false;
+        } catch (IOException e) {
+            LOGGER.warn("Couldn't save entity model cache to {}", this.path, e);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.MeshDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import net.minecraft.client.model.geom.builders.UVPair;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collapses structurally identical layer definitions into one canonical instance, using a content hash over the whole layer definition tree.
+ * <p>
+ * Two layer definitions are identical if they are of the same class, have the same material and mesh properties,
+ * and their part trees have the same part classes, poses, cubes and children.
+ * Floats are compared by their bits, so only truly identical values are folded.
+ * Since baking always creates fresh model parts, sharing one layer definition between multiple locations is safe.
+ */
+public class LayerDefinitionDeduplicator {
+    private final Map<PartDefinition, Integer> partHashes = new IdentityHashMap<>();
+    private final Map<Integer, List<LayerDefinition>> canonicals = new HashMap<>();
+
+    /**
+     * Replaces every layer definition in the map with its canonical instance.
+     *
+     * @param roots The map of model layer locations to layer definition roots, which is modified in place
+     * @return The number of layer definitions which were folded into an identical canonical instance
+     */
+    public static int deduplicate(Map<ModelLayerLocation, LayerDefinition> roots) {
+        LayerDefinitionDeduplicator deduplicator = new LayerDefinitionDeduplicator();
+        int folded = 0;
+
+        for (var entry : roots.entrySet()) {
+            LayerDefinition canonical = deduplicator.canonicalize(entry.getValue());
+            if (canonical != entry.getValue()) {
+                entry.setValue(canonical);
+                folded++;
+            }
+        }
+
+        return folded;
+    }
+
+    /**
+     * @return {@code true} if both layer definitions are structurally identical, meaning one could be folded into the other
+     */
+    public static boolean isIdentical(LayerDefinition a, LayerDefinition b) {
+        return a == b || layersEqual(a, b);
+    }
+
+    private LayerDefinition canonicalize(LayerDefinition layerDef) {
+        List<LayerDefinition> bucket = this.canonicals.computeIfAbsent(hashLayer(layerDef), k -> new ArrayList<>(1));
+        for (LayerDefinition canonical : bucket) {
+            if (canonical == layerDef || layersEqual(canonical, layerDef))
+                return canonical;
+        }
+        bucket.add(layerDef);
+        return layerDef;
+    }
+
+    private int hashLayer(LayerDefinition layerDef) {
+        int hash = layerDef.getClass().hashCode();
+        MaterialDefinition material = getMaterial(layerDef);
+        if (material != null)
+            hash = 31 * (31 * hash + material.xTexSize) + material.yTexSize;
+
+        MeshDefinition mesh = layerDef.mesh;
+        hash = 31 * hash + mesh.getClass().hashCode();
+        if (mesh instanceof ParentedMeshDefinition parentedMesh) {
+            hash = 31 * hash + Objects.hashCode(parentedMesh.getParent());
+            hash = 31 * hash + Boolean.hashCode(parentedMesh.isOverwrite());
+            hash = 31 * hash + Boolean.hashCode(parentedMesh.shouldFixVanillaOffset());
+        }
+
+        return 31 * hash + hashPart(mesh.getRoot());
+    }
+
+    private int hashPart(PartDefinition partDef) {
+        // Subtrees can be shared between layers, so their hashes are memoized by identity
+        Integer cached = this.partHashes.get(partDef);
+        if (cached != null)
+            return cached;
+
+        int hash = partDef.getClass().hashCode();
+        hash = 31 * hash + hashPose(partDef.partPose);
+        for (CubeDefinition cube : partDef.cubes) {
+            hash = 31 * hash + hashCube(cube);
+        }
+
+        int childrenHash = 0;
+        for (var entry : partDef.children.entrySet()) {
+            // Summed so that the iteration order of the children map does not matter
+            childrenHash += entry.getKey().hashCode() ^ hashPart(entry.getValue());
+        }
+        hash = 31 * hash + childrenHash;
+
+        this.partHashes.put(partDef, hash);
+        return hash;
+    }
+
+    private static int hashPose(PartPose pose) {
+        int hash = Float.floatToIntBits(pose.x);
+        hash = 31 * hash + Float.floatToIntBits(pose.y);
+        hash = 31 * hash + Float.floatToIntBits(pose.z);
+        hash = 31 * hash + Float.floatToIntBits(pose.xRot);
+        hash = 31 * hash + Float.floatToIntBits(pose.yRot);
+        return 31 * hash + Float.floatToIntBits(pose.zRot);
+    }
+
+    private static int hashCube(CubeDefinition cube) {
+        int hash = Objects.hashCode(cube.comment);
+        hash = 31 * hash + cube.origin.hashCode();
+        hash = 31 * hash + cube.dimensions.hashCode();
+        hash = 31 * hash + Float.floatToIntBits(cube.grow.growX);
+        hash = 31 * hash + Float.floatToIntBits(cube.grow.growY);
+        hash = 31 * hash + Float.floatToIntBits(cube.grow.growZ);
+        hash = 31 * hash + Boolean.hashCode(cube.mirror);
+        hash = 31 * hash + Float.floatToIntBits(cube.texCoord.u());
+        hash = 31 * hash + Float.floatToIntBits(cube.texCoord.v());
+        hash = 31 * hash + Float.floatToIntBits(cube.texScale.u());
+        return 31 * hash + Float.floatToIntBits(cube.texScale.v());
+    }
+
+    private static boolean layersEqual(LayerDefinition a, LayerDefinition b) {
+        if (a.getClass() != b.getClass() || !materialsEqual(getMaterial(a), getMaterial(b)))
+            return false;
+
+        MeshDefinition meshA = a.mesh;
+        MeshDefinition meshB = b.mesh;
+        if (meshA.getClass() != meshB.getClass())
+            return false;
+        if (meshA instanceof ParentedMeshDefinition parentedA && meshB instanceof ParentedMeshDefinition parentedB) {
+            if (!Objects.equals(parentedA.getParent(), parentedB.getParent())
+                    || !cubeDeformationsEqual(parentedA.getUniversalCubeDeformation(), parentedB.getUniversalCubeDeformation())
+                    || parentedA.isOverwrite() != parentedB.isOverwrite()
+                    || parentedA.shouldFixVanillaOffset() != parentedB.shouldFixVanillaOffset()
+                    || parentedA.hasCalculatedInheritance() != parentedB.hasCalculatedInheritance())
+                return false;
+        }
+
+        return partsEqual(meshA.getRoot(), meshB.getRoot());
+    }
+
+    private static boolean partsEqual(PartDefinition a, PartDefinition b) {
+        if (a == b)
+            return true;
+        if (a.getClass() != b.getClass() || !posesEqual(a.partPose, b.partPose) || a.cubes.size() != b.cubes.size() || a.children.size() != b.children.size())
+            return false;
+
+        for (int i = 0; i < a.cubes.size(); i++) {
+            if (!cubesEqual(a.cubes.get(i), b.cubes.get(i)))
+                return false;
+        }
+
+        for (var entry : a.children.entrySet()) {
+            PartDefinition otherChild = b.children.get(entry.getKey());
+            if (otherChild == null || !partsEqual(entry.getValue(), otherChild))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean posesEqual(PartPose a, PartPose b) {
+        return floatsEqual(a.x, b.x) && floatsEqual(a.y, b.y) && floatsEqual(a.z, b.z)
+                && floatsEqual(a.xRot, b.xRot) && floatsEqual(a.yRot, b.yRot) && floatsEqual(a.zRot, b.zRot);
+    }
+
+    private static boolean cubesEqual(CubeDefinition a, CubeDefinition b) {
+        return a == b || (Objects.equals(a.comment, b.comment) && a.origin.equals(b.origin) && a.dimensions.equals(b.dimensions)
+                && cubeDeformationsEqual(a.grow, b.grow) && a.mirror == b.mirror && uvPairsEqual(a.texCoord, b.texCoord) && uvPairsEqual(a.texScale, b.texScale));
+    }
+
+    private static boolean cubeDeformationsEqual(@Nullable CubeDeformation a, @Nullable CubeDeformation b) {
+        if (a == null || b == null)
+            return a == b;
+        return floatsEqual(a.growX, b.growX) && floatsEqual(a.growY, b.growY) && floatsEqual(a.growZ, b.growZ);
+    }
+
+    private static boolean uvPairsEqual(UVPair a, UVPair b) {
+        return floatsEqual(a.u(), b.u()) && floatsEqual(a.v(), b.v());
+    }
+
+    private static boolean materialsEqual(@Nullable MaterialDefinition a, @Nullable MaterialDefinition b) {
+        if (a == null || b == null)
+            return a == b;
+        return a.xTexSize == b.xTexSize && a.yTexSize == b.yTexSize;
+    }
+
+    private static boolean floatsEqual(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    @Nullable
+    private static MaterialDefinition getMaterial(LayerDefinition layerDef) {
+        return layerDef instanceof InheritingLayerDefinition inheritingLayerDef ? inheritingLayerDef.getMaterial() : layerDef.material;
+    }
+}
@@ -29,12 +29,14 @@ import com.mojang.serialization.JsonOps;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.model.geom.ModelLayerLocation;
 import net.minecraft.client.model.geom.builders.LayerDefinition;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.Map;
 import java.util.function.Predicate;
 
 public class LayerDefinitionExporter {
@@ -42,7 +44,12 @@ public class LayerDefinitionExporter {
 
     @Nullable
     public static Path exportSingle(Path exportFolder, ModelLayerLocation layerLoc) throws IOException {
-        LayerDefinition layerDef = Minecraft.getInstance().getEntityModels().roots.get(layerLoc);
+        return exportSingle(exportFolder, Minecraft.getInstance().getEntityModels().roots, layerLoc);
+    }
+
+    @Nullable
+    public static Path exportSingle(Path exportFolder, Map<ModelLayerLocation, LayerDefinition> roots, ModelLayerLocation layerLoc) throws IOException {
+        LayerDefinition layerDef = roots.get(layerLoc);
         if (layerDef == null)
             return null;
 
@@ -56,12 +63,16 @@ public class LayerDefinitionExporter {
     }
 
     public static int export(Path exportFolder, Predicate<ModelLayerLocation> filter) throws IOException {
+        return export(exportFolder, Minecraft.getInstance().getEntityModels().roots, filter);
+    }
+
+    public static int export(Path exportFolder, Map<ModelLayerLocation, LayerDefinition> roots, Predicate<ModelLayerLocation> filter) throws IOException {
         if (Files.isRegularFile(exportFolder))
             throw new IllegalArgumentException("Export folder must be a directory but was a file instead: " + exportFolder);
 
         int count = 0;
 
-        for (var entry : Minecraft.getInstance().getEntityModels().roots.entrySet()) {
+        for (var entry : roots.entrySet()) {
             ModelLayerLocation layerLoc = entry.getKey();
             if (!filter.test(layerLoc))
                 continue;
@@ -79,8 +90,16 @@ public class LayerDefinitionExporter {
 
     private static void write(LayerDefinition layerDef, Path outputPath) throws IOException {
         Files.createDirectories(outputPath.getParent());
+        Files.writeString(outputPath, getJsonString(layerDef), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    @NotNull
+    public static String getJsonString(LayerDefinition layerDef) {
+        return GSON.toJson(getJson(layerDef));
+    }
 
-        JsonElement layerJson = EntityModelCodecHolder.LAYER_DEFINITION_CODEC.encodeStart(JsonOps.INSTANCE, layerDef).result().orElseThrow();
-        Files.writeString(outputPath, GSON.toJson(layerJson), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    @NotNull
+    public static JsonElement getJson(LayerDefinition layerDef) {
+        return EntityModelCodecHolder.LAYER_DEFINITION_CODEC.encodeStart(JsonOps.INSTANCE, layerDef).result().orElseThrow();
     }
 }
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.internal.LazilyParsedNumber;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming decoder for layer definition JSON which reads directly into {@link SafePartDefinition}s, {@link CubeDefinition}s, and a {@link ParentedMeshDefinition}
+ * without building an intermediate JSON tree.
+ * <p>
+ * This decoder is strict; any input that is not exactly in the shape written by {@link LayerDefinitionExporter} and documented in the spec throws an exception.
+ * {@link EntityModelCodecHolder#LAYER_DEFINITION_CODEC} is the reference implementation and should be used as a fallback when this decoder fails,
+ * so that lenient input and error messages behave the same as before.
+ */
+public class LayerDefinitionReader {
+    private final ModelInterner interner;
+
+    private LayerDefinitionReader(ModelInterner interner) {
+        this.interner = interner;
+    }
+
+    public static LayerDefinition read(Reader reader) throws IOException {
+        return read(reader, ModelInterner.NONE);
+    }
+
+    /**
+     * Reads a layer definition, using the interner for all cubes, cube deformations, and part poses.
+     */
+    public static LayerDefinition read(Reader reader, ModelInterner interner) throws IOException {
+        JsonReader jsonReader = new JsonReader(reader);
+        jsonReader.setLenient(false);
+        LayerDefinition layerDef = new LayerDefinitionReader(interner).readLayerDefinition(jsonReader);
+        // Content after the top-level object is rejected like GsonHelper#fromJson does, so that the codec handles it
+        expect(jsonReader, JsonToken.END_DOCUMENT);
+        return layerDef;
+    }
+
+    private LayerDefinition readLayerDefinition(JsonReader reader) throws IOException {
+        ParentedMeshDefinition mesh = null;
+        MaterialDefinition material = null;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "mesh" -> mesh = readMeshDefinition(reader);
+                case "material" -> material = readMaterialDefinition(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (mesh == null)
+            throw new JsonSyntaxException("No key mesh in layer definition");
+
+        return new InheritingLayerDefinition(mesh, material);
+    }
+
+    private ParentedMeshDefinition readMeshDefinition(JsonReader reader) throws IOException {
+        ModelLayerLocation parent = null;
+        CubeDeformation universalCubeDeformation = null;
+        boolean overwrite = true;
+        PartDefinition root = null;
+        boolean fixVanillaOffset = false;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "parent" -> parent = readModelLayerLocation(reader);
+                case "universalCubeDeformation" -> universalCubeDeformation = readCubeDeformation(reader);
+                case "overwrite" -> overwrite = readBoolean(reader);
+                case "root" -> root = readPartDefinition(reader);
+                case "fixVanillaOffset" -> fixVanillaOffset = readBoolean(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (root != null) {
+            // Ensure no cubes or a part pose can be defined for the root node.
+            root.cubes = List.of();
+            root.partPose = PartPose.ZERO;
+        }
+
+        return new ParentedMeshDefinition(parent, universalCubeDeformation, root, overwrite, fixVanillaOffset);
+    }
+
+    private MaterialDefinition readMaterialDefinition(JsonReader reader) throws IOException {
+        int xTexSize = 64;
+        int yTexSize = 32;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            // Matches the orElse behavior of the codec, which falls back to the default on any error
+            if (reader.peek() != JsonToken.NUMBER) {
+                reader.skipValue();
+                continue;
+            }
+
+            switch (name) {
+                case "xTexSize" -> xTexSize = readInt(reader);
+                case "yTexSize" -> yTexSize = readInt(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new MaterialDefinition(xTexSize, yTexSize);
+    }
+
+    private PartDefinition readPartDefinition(JsonReader reader) throws IOException {
+        List<CubeDefinition> cubes = List.of();
+        PartPose partPose = PartPose.ZERO;
+        List<String> childNames = null;
+        List<PartDefinition> childParts = null;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "cubes" -> cubes = readCubes(reader);
+                case "partPose" -> partPose = readPartPose(reader);
+                case "children" -> {
+                    childNames = new ArrayList<>();
+                    childParts = new ArrayList<>();
+
+                    beginObject(reader);
+                    while (reader.hasNext()) {
+                        childNames.add(reader.nextName());
+                        childParts.add(readPartDefinition(reader));
+                    }
+                    reader.endObject();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        PartDefinition partDefinition = new SafePartDefinition(cubes, partPose);
+        if (childNames != null) {
+            for (int i = 0; i < childNames.size(); i++) {
+                if (partDefinition.children.put(childNames.get(i), childParts.get(i)) != null)
+                    throw new JsonSyntaxException("Duplicate child " + childNames.get(i) + " at " + reader.getPath());
+            }
+        }
+
+        return partDefinition;
+    }
+
+    private List<CubeDefinition> readCubes(JsonReader reader) throws IOException {
+        List<CubeDefinition> cubes = new ArrayList<>();
+
+        beginArray(reader);
+        while (reader.hasNext()) {
+            cubes.add(readCubeDefinition(reader));
+        }
+        reader.endArray();
+
+        return cubes;
+    }
+
+    private CubeDefinition readCubeDefinition(JsonReader reader) throws IOException {
+        String comment = null;
+        float[] origin = null;
+        float[] dimensions = null;
+        CubeDeformation grow = CubeDeformation.NONE;
+        boolean mirror = false;
+        float[] texCoord = null;
+        float texScaleX = 1F;
+        float texScaleY = 1F;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "comment" -> comment = readString(reader);
+                case "origin" -> origin = readVector3f(reader);
+                case "dimensions" -> dimensions = readVector3f(reader);
+                case "grow" -> grow = readCubeDeformation(reader);
+                case "mirror" -> mirror = readBoolean(reader);
+                case "texCoord" -> texCoord = readUVPair(reader);
+                case "texScaleX" -> texScaleX = readFloat(reader);
+                case "texScaleY" -> texScaleY = readFloat(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (origin == null || dimensions == null || texCoord == null)
+            throw new JsonSyntaxException("Cube definition is missing origin, dimensions, or texCoord at " + reader.getPath());
+
+        return this.interner.cubeDefinition(comment, texCoord[0], texCoord[1], origin[0], origin[1], origin[2], dimensions[0], dimensions[1], dimensions[2], grow, mirror,
+                texScaleX, texScaleY);
+    }
+
+    private PartPose readPartPose(JsonReader reader) throws IOException {
+        float x = 0F, y = 0F, z = 0F, xRot = 0F, yRot = 0F, zRot = 0F;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "x" -> x = readFloat(reader);
+                case "y" -> y = readFloat(reader);
+                case "z" -> z = readFloat(reader);
+                case "xRot" -> xRot = readFloat(reader);
+                case "yRot" -> yRot = readFloat(reader);
+                case "zRot" -> zRot = readFloat(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return this.interner.partPose(x, y, z, xRot, yRot, zRot);
+    }
+
+    private CubeDeformation readCubeDeformation(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NUMBER) {
+            float grow = readFloat(reader);
+            return this.interner.cubeDeformation(grow, grow, grow);
+        }
+
+        float growX = 0F, growY = 0F, growZ = 0F;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "growX" -> growX = readFloat(reader);
+                case "growY" -> growY = readFloat(reader);
+                case "growZ" -> growZ = readFloat(reader);
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return this.interner.cubeDeformation(growX, growY, growZ);
+    }
+
+    private static float[] readUVPair(JsonReader reader) throws IOException {
+        float[] uv = new float[2];
+        boolean hasU = false, hasV = false;
+
+        beginObject(reader);
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader))
+                continue;
+
+            switch (name) {
+                case "u" -> {
+                    uv[0] = readFloat(reader);
+                    hasU = true;
+                }
+                case "v" -> {
+                    uv[1] = readFloat(reader);
+                    hasV = true;
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (!hasU || !hasV)
+            throw new JsonSyntaxException("UV pair is missing u or v at " + reader.getPath());
+
+        return uv;
+    }
+
+    private static float[] readVector3f(JsonReader reader) throws IOException {
+        float[] vector = new float[3];
+        int size = 0;
+
+        beginArray(reader);
+        while (reader.hasNext()) {
+            if (size == 3)
+                throw new JsonSyntaxException("Vector has more than 3 elements at " + reader.getPath());
+            vector[size++] = readFloat(reader);
+        }
+        reader.endArray();
+
+        if (size != 3)
+            throw new JsonSyntaxException("Vector has less than 3 elements at " + reader.getPath());
+
+        return vector;
+    }
+
+    private static ModelLayerLocation readModelLayerLocation(JsonReader reader) throws IOException {
+        String layerLocation = readString(reader);
+        return EntityModelCodecHolder.readModelLayerLocation(layerLocation).result()
+                .orElseThrow(() -> new JsonSyntaxException("Not a valid model layer location: " + layerLocation + " at " + reader.getPath()));
+    }
+
+    private static String readString(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.STRING);
+        return reader.nextString();
+    }
+
+    private static boolean readBoolean(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.BOOLEAN);
+        return reader.nextBoolean();
+    }
+
+    // Numbers are parsed the same way as JsonOps to guarantee identical results to the codec
+    private static float readFloat(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.NUMBER);
+        return new LazilyParsedNumber(reader.nextString()).floatValue();
+    }
+
+    private static int readInt(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.NUMBER);
+        return new LazilyParsedNumber(reader.nextString()).intValue();
+    }
+
+    private static void beginObject(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.BEGIN_OBJECT);
+        reader.beginObject();
+    }
+
+    private static void beginArray(JsonReader reader) throws IOException {
+        expect(reader, JsonToken.BEGIN_ARRAY);
+        reader.beginArray();
+    }
+
+    // JSON nulls are treated as absent, just like in JsonOps
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() != JsonToken.NULL)
+            return false;
+
+        reader.nextNull();
+        return true;
+    }
+
+    private static void expect(JsonReader reader, JsonToken token) throws IOException {
+        JsonToken actual = reader.peek();
+        if (actual != token)
+            throw new JsonSyntaxException("Expected " + token + " but was " + actual + " at " + reader.getPath());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A compact binary form of freshly decoded JSON layer definitions, used by the {@link LayerDefinitionCache}.
+ * <p>
+ * Only layer definitions in the shape produced by {@link LayerDefinitionReader} can be written,
+ * meaning an {@link InheritingLayerDefinition} with a {@link ParentedMeshDefinition} whose inheritance has not been calculated yet.
+ */
+public class LayerDefinitionSerializer {
+    /**
+     * Should be incremented every time the binary format changes, which invalidates all existing caches.
+     */
+    public static final int FORMAT_VERSION = 1;
+
+    public static boolean canWrite(LayerDefinition layerDef) {
+        return layerDef instanceof InheritingLayerDefinition && layerDef.mesh instanceof ParentedMeshDefinition parentedMesh && !parentedMesh.hasCalculatedInheritance();
+    }
+
+    public static void write(DataOutput output, LayerDefinition layerDef) throws IOException {
+        if (!canWrite(layerDef))
+            throw new IllegalArgumentException("Layer definition cannot be serialized: " + layerDef);
+
+        InheritingLayerDefinition inheritingLayerDef = (InheritingLayerDefinition) layerDef;
+        ParentedMeshDefinition mesh = (ParentedMeshDefinition) layerDef.mesh;
+
+        MaterialDefinition material = inheritingLayerDef.getMaterial();
+        output.writeBoolean(material != null);
+        if (material != null) {
+            output.writeInt(material.xTexSize);
+            output.writeInt(material.yTexSize);
+        }
+
+        ModelLayerLocation parent = mesh.getParent();
+        output.writeBoolean(parent != null);
+        if (parent != null)
+            output.writeUTF(parent.toString());
+        writeNullableCubeDeformation(output, mesh.getUniversalCubeDeformation());
+        output.writeBoolean(mesh.isOverwrite());
+        output.writeBoolean(mesh.shouldFixVanillaOffset());
+
+        // The default root of a mesh definition is not a safe part definition, so its absence needs to be preserved
+        PartDefinition root = mesh.getRoot();
+        boolean hasRoot = root instanceof SafePartDefinition;
+        output.writeBoolean(hasRoot);
+        if (hasRoot)
+            writePartDefinition(output, root);
+    }
+
+    public static LayerDefinition read(DataInput input) throws IOException {
+        return read(input, ModelInterner.NONE);
+    }
+
+    /**
+     * Reads a layer definition, using the interner for all cubes, cube deformations, and part poses.
+     */
+    public static LayerDefinition read(DataInput input, ModelInterner interner) throws IOException {
+        MaterialDefinition material = input.readBoolean() ? new MaterialDefinition(input.readInt(), input.readInt()) : null;
+
+        ModelLayerLocation parent = null;
+        if (input.readBoolean()) {
+            String parentStr = input.readUTF();
+            parent = EntityModelCodecHolder.readModelLayerLocation(parentStr).result()
+                    .orElseThrow(() -> new IOException("Invalid parent layer location " + parentStr));
+        }
+        CubeDeformation universalCubeDeformation = readNullableCubeDeformation(input, interner);
+        boolean overwrite = input.readBoolean();
+        boolean fixVanillaOffset = input.readBoolean();
+        PartDefinition root = input.readBoolean() ? readPartDefinition(input, interner) : null;
+
+        return new InheritingLayerDefinition(new ParentedMeshDefinition(parent, universalCubeDeformation, root, overwrite, fixVanillaOffset), material);
+    }
+
+    private static void writePartDefinition(DataOutput output, PartDefinition partDef) throws IOException {
+        PartPose pose = partDef.partPose;
+        output.writeFloat(pose.x);
+        output.writeFloat(pose.y);
+        output.writeFloat(pose.z);
+        output.writeFloat(pose.xRot);
+        output.writeFloat(pose.yRot);
+        output.writeFloat(pose.zRot);
+
+        output.writeInt(partDef.cubes.size());
+        for (CubeDefinition cube : partDef.cubes) {
+            writeCubeDefinition(output, cube);
+        }
+
+        output.writeInt(partDef.children.size());
+        for (var entry : partDef.children.entrySet()) {
+            output.writeUTF(entry.getKey());
+            writePartDefinition(output, entry.getValue());
+        }
+    }
+
+    private static PartDefinition readPartDefinition(DataInput input, ModelInterner interner) throws IOException {
+        PartPose pose = interner.partPose(input.readFloat(), input.readFloat(), input.readFloat(), input.readFloat(), input.readFloat(), input.readFloat());
+
+        int cubeCount = input.readInt();
+        List<CubeDefinition> cubes = new ArrayList<>(cubeCount);
+        for (int i = 0; i < cubeCount; i++) {
+            cubes.add(readCubeDefinition(input, interner));
+        }
+
+        PartDefinition partDef = new SafePartDefinition(cubes, pose);
+
+        int childCount = input.readInt();
+        for (int i = 0; i < childCount; i++) {
+            String name = input.readUTF();
+            partDef.children.put(name, readPartDefinition(input, interner));
+        }
+
+        return partDef;
+    }
+
+    private static void writeCubeDefinition(DataOutput output, CubeDefinition cube) throws IOException {
+        output.writeBoolean(cube.comment != null);
+        if (cube.comment != null)
+            output.writeUTF(cube.comment);
+        output.writeFloat(cube.origin.x());
+        output.writeFloat(cube.origin.y());
+        output.writeFloat(cube.origin.z());
+        output.writeFloat(cube.dimensions.x());
+        output.writeFloat(cube.dimensions.y());
+        output.writeFloat(cube.dimensions.z());
+        writeCubeDeformation(output, cube.grow);
+        output.writeBoolean(cube.mirror);
+        output.writeFloat(cube.texCoord.u());
+        output.writeFloat(cube.texCoord.v());
+        output.writeFloat(cube.texScale.u());
+        output.writeFloat(cube.texScale.v());
+    }
+
+    private static CubeDefinition readCubeDefinition(DataInput input, ModelInterner interner) throws IOException {
+        String comment = input.readBoolean() ? input.readUTF() : null;
+        float originX = input.readFloat();
+        float originY = input.readFloat();
+        float originZ = input.readFloat();
+        float dimensionsX = input.readFloat();
+        float dimensionsY = input.readFloat();
+        float dimensionsZ = input.readFloat();
+        CubeDeformation grow = readCubeDeformation(input, interner);
+        boolean mirror = input.readBoolean();
+        float texU = input.readFloat();
+        float texV = input.readFloat();
+        float texScaleX = input.readFloat();
+        float texScaleY = input.readFloat();
+
+        return interner.cubeDefinition(comment, texU, texV, originX, originY, originZ, dimensionsX, dimensionsY, dimensionsZ, grow, mirror, texScaleX, texScaleY);
+    }
+
+    private static void writeNullableCubeDeformation(DataOutput output, @Nullable CubeDeformation cubeDef) throws IOException {
+        output.writeBoolean(cubeDef != null);
+        if (cubeDef != null)
+            writeCubeDeformation(output, cubeDef);
+    }
+
+    @Nullable
+    private static CubeDeformation readNullableCubeDeformation(DataInput input, ModelInterner interner) throws IOException {
+        return input.readBoolean() ? readCubeDeformation(input, interner) : null;
+    }
+
+    private static void writeCubeDeformation(DataOutput output, CubeDeformation cubeDef) throws IOException {
+        output.writeFloat(cubeDef.growX);
+        output.writeFloat(cubeDef.growY);
+        output.writeFloat(cubeDef.growZ);
+    }
+
+    private static CubeDeformation readCubeDeformation(DataInput input, ModelInterner interner) throws IOException {
+        return interner.cubeDeformation(input.readFloat(), input.readFloat(), input.readFloat());
+    }
+}
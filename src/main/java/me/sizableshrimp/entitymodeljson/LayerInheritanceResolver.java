@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.google.common.collect.ListMultimap;
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Calculates the inheritance of {@link ParentedMeshDefinition parented mesh definitions} in dependency order.
+ * <p>
+ * A parented mesh definition must only copy its parent after the parent has calculated its own inheritance,
+ * otherwise deep inheritance chains would copy unresolved trees.
+ * To guarantee this, an explicit graph of parents is built and resolved level by level, where each level only depends on earlier levels.
+ * Nodes on the same level are independent of each other, so large levels are resolved in parallel.
+ * Parent cycles are reported and broken by ignoring the parent of one node in the cycle.
+ */
+public class LayerInheritanceResolver {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private static final int PARALLEL_THRESHOLD = 32;
+
+    /**
+     * Calculates inheritance for all parented mesh definitions in {@code jsonRoots} which have not calculated their inheritance yet.
+     *
+     * @param jsonRoots The layer definitions read from JSON
+     * @param prevRoots A map of previously defined roots, both in code and earlier resource packs, used when merging
+     * @param roots The merged code + JSON-defined map of model layer locations to layer definition roots; used to find parents
+     * @param interner The interner used for all newly created cubes and part poses
+     * @param executor The executor used to resolve large levels in parallel
+     */
+    public static void resolve(Map<ModelLayerLocation, LayerDefinition> jsonRoots, ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots,
+            Map<ModelLayerLocation, LayerDefinition> roots, ModelInterner interner, Executor executor) {
+        Map<ModelLayerLocation, ParentedMeshDefinition> nodes = new HashMap<>();
+        jsonRoots.forEach((location, layer) -> {
+            if (layer.mesh instanceof ParentedMeshDefinition parentedMesh && !parentedMesh.hasCalculatedInheritance())
+                nodes.put(location, parentedMesh);
+        });
+
+        // Edges go from a parent to the children that need it to be resolved first
+        Map<ModelLayerLocation, List<ModelLayerLocation>> dependents = new HashMap<>();
+        List<ModelLayerLocation> level = new ArrayList<>();
+        nodes.forEach((location, mesh) -> {
+            ModelLayerLocation parent = mesh.getParent();
+            if (parent != null && nodes.containsKey(parent)) {
+                dependents.computeIfAbsent(parent, k -> new ArrayList<>()).add(location);
+            } else {
+                level.add(location);
+            }
+        });
+
+        int resolvedCount = 0;
+        List<ModelLayerLocation> currentLevel = level;
+        while (!currentLevel.isEmpty()) {
+            resolveLevel(currentLevel, nodes, prevRoots, roots, interner, executor);
+            resolvedCount += currentLevel.size();
+
+            List<ModelLayerLocation> nextLevel = new ArrayList<>();
+            for (ModelLayerLocation location : currentLevel) {
+                List<ModelLayerLocation> children = dependents.get(location);
+                if (children != null)
+                    nextLevel.addAll(children);
+            }
+            currentLevel = nextLevel;
+        }
+
+        if (resolvedCount == nodes.size())
+            return;
+
+        // Anything left over is either part of a parent cycle or depends on one
+        Set<ModelLayerLocation> visiting = new HashSet<>();
+        nodes.keySet().forEach(location -> resolveCyclic(location, nodes, visiting, prevRoots, roots, interner));
+    }
+
+    private static void resolveCyclic(ModelLayerLocation location, Map<ModelLayerLocation, ParentedMeshDefinition> nodes, Set<ModelLayerLocation> visiting,
+            ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots, Map<ModelLayerLocation, LayerDefinition> roots, ModelInterner interner) {
+        ParentedMeshDefinition mesh = nodes.get(location);
+        if (mesh.hasCalculatedInheritance())
+            return;
+
+        visiting.add(location);
+        ModelLayerLocation parent = mesh.getParent();
+        if (parent != null && nodes.containsKey(parent)) {
+            if (visiting.contains(parent)) {
+                LOGGER.error("Entity model {} has a cyclic parent chain through {}; its parent will be ignored", location, parent);
+                mesh.setParent(null);
+            } else {
+                resolveCyclic(parent, nodes, visiting, prevRoots, roots, interner);
+            }
+        }
+        visiting.remove(location);
+
+        mesh.calculateInheritance(location, prevRoots, roots, interner);
+    }
+
+    private static void resolveLevel(List<ModelLayerLocation> level, Map<ModelLayerLocation, ParentedMeshDefinition> nodes,
+            ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots, Map<ModelLayerLocation, LayerDefinition> roots, ModelInterner interner, Executor executor) {
+        if (level.size() < PARALLEL_THRESHOLD) {
+            for (ModelLayerLocation location : level) {
+                nodes.get(location).calculateInheritance(location, prevRoots, roots, interner);
+            }
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture[level.size()];
+        for (int i = 0; i < futures.length; i++) {
+            ModelLayerLocation location = level.get(i);
+            ParentedMeshDefinition mesh = nodes.get(location);
+            futures[i] = CompletableFuture.runAsync(() -> mesh.calculateInheritance(location, prevRoots, roots, interner), executor);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A layer definition whose {@link LazyMeshDefinition mesh} is only decoded when the layer is first baked or its mesh is first accessed.
+ * <p>
+ * The resolved material is kept by the mesh, so it must be read through {@link #getMaterial()}, which resolves first.
+ * The vanilla {@link #material} field always holds the default material.
+ */
+public class LazyLayerDefinition extends InheritingLayerDefinition {
+    private final LazyMeshDefinition lazyMesh;
+
+    public LazyLayerDefinition(LazyMeshDefinition mesh) {
+        super(mesh, (MaterialDefinition) null);
+        this.lazyMesh = mesh;
+    }
+
+    public LazyMeshDefinition getLazyMesh() {
+        return this.lazyMesh;
+    }
+
+    @Override
+    public ModelPart bakeRoot() {
+        MaterialDefinition material = this.getMaterial();
+        if (material == null)
+            material = DEFAULT_MATERIAL;
+        return this.lazyMesh.getRoot().bake(material.xTexSize, material.yTexSize);
+    }
+
+    @Override
+    @Nullable
+    public MaterialDefinition getMaterial() {
+        return this.lazyMesh.getMaterial();
+    }
+
+    @Override
+    public void setMaterial(@Nullable MaterialDefinition internalMaterial) {
+        // The mesh is resolved first, so that the decoded material does not replace this one afterwards
+        this.lazyMesh.setMaterial(internalMaterial);
+    }
+}
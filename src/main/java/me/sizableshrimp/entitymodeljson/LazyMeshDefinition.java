@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.google.common.collect.ListMultimap;
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import net.minecraft.client.model.geom.builders.LayerDefinition;
+import net.minecraft.client.model.geom.builders.MaterialDefinition;
+import net.minecraft.client.model.geom.builders.PartDefinition;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * A parented mesh definition which is only decoded and inheritance-resolved when it is first accessed.
+ * <p>
+ * Every accessor first resolves the mesh through its resolver, which returns the fully merged and inheritance-resolved layer definition,
+ * and then adopts its root, parent, and material. Resolution happens at most once, under a lock shared by all lazy meshes of a run,
+ * so that a lazy mesh can resolve its lazy parent without deadlocking. A parent cycle is reported and breaks at the mesh it started from.
+ *
+ * @see LazyLayerDefinition
+ */
+public class LazyMeshDefinition extends ParentedMeshDefinition {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private final ModelLayerLocation location;
+    private final Object lock;
+    @Nullable
+    private Supplier<LayerDefinition> resolver;
+    @Nullable
+    private PartDefinition resolvedRoot;
+    @Nullable
+    private volatile MaterialDefinition material;
+    private boolean resolving;
+    private volatile boolean resolved;
+
+    /**
+     * @param location The model layer location of this mesh definition, used for error messages
+     * @param lock The lock shared by all lazy mesh definitions which can be parents of each other
+     * @param resolver Decodes, merges, and calculates the inheritance of the layer definition; called at most once
+     */
+    public LazyMeshDefinition(ModelLayerLocation location, Object lock, Supplier<LayerDefinition> resolver) {
+        this.location = location;
+        this.lock = lock;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @return True if this mesh definition has been resolved, false if it has never been accessed
+     */
+    public boolean isResolved() {
+        return this.resolved;
+    }
+
+    public ModelLayerLocation getLocation() {
+        return this.location;
+    }
+
+    /**
+     * Decodes and resolves this mesh definition if it has not been resolved yet.
+     */
+    public void resolve() {
+        if (this.resolved)
+            return;
+
+        synchronized (this.lock) {
+            if (this.resolved)
+                return;
+            // The lock is reentrant, so a parent cycle comes back here on the same thread
+            if (this.resolving) {
+                LOGGER.error("Entity model {} has a cyclic parent chain", this.location);
+                return;
+            }
+
+            this.resolving = true;
+            try {
+                LayerDefinition layerDef = this.resolver.get();
+                this.resolvedRoot = layerDef.mesh.getRoot();
+                this.material = layerDef instanceof InheritingLayerDefinition inheritingLayerDef ? inheritingLayerDef.getMaterial() : layerDef.material;
+                if (layerDef.mesh instanceof ParentedMeshDefinition parentedMesh) {
+                    super.setParent(parentedMesh.getParent());
+                    super.setUniversalCubeDeformation(parentedMesh.getUniversalCubeDeformation());
+                    super.setOverwrite(parentedMesh.isOverwrite());
+                    super.setFixVanillaOffset(parentedMesh.shouldFixVanillaOffset());
+                }
+            } finally {
+                this.resolving = false;
+                // The resolver holds on to the raw bytes of the files, which are no longer needed
+                this.resolver = null;
+                this.resolved = true;
+            }
+        }
+    }
+
+    /**
+     * @return The resolved material definition, or {@code null} to use the default material
+     */
+    @Nullable
+    MaterialDefinition getMaterial() {
+        this.resolve();
+        return this.material;
+    }
+
+    /**
+     * Resolves this mesh definition and then replaces the resolved material definition.
+     */
+    void setMaterial(@Nullable MaterialDefinition material) {
+        this.resolve();
+        this.material = material;
+    }
+
+    @Override
+    public PartDefinition getRoot() {
+        this.resolve();
+        // Only a parent cycle can see this mesh before it is resolved, in which case the cycle inherits nothing from it
+        return this.resolvedRoot == null ? super.getRoot() : this.resolvedRoot;
+    }
+
+    @Override
+    @Nullable
+    public ModelLayerLocation getParent() {
+        this.resolve();
+        return super.getParent();
+    }
+
+    @Override
+    @Nullable
+    public CubeDeformation getUniversalCubeDeformation() {
+        this.resolve();
+        return super.getUniversalCubeDeformation();
+    }
+
+    @Override
+    public boolean isOverwrite() {
+        this.resolve();
+        return super.isOverwrite();
+    }
+
+    @Override
+    public boolean shouldFixVanillaOffset() {
+        this.resolve();
+        return super.shouldFixVanillaOffset();
+    }
+
+    /**
+     * Lazy mesh definitions calculate their inheritance as part of being resolved.
+     */
+    @Override
+    public boolean hasCalculatedInheritance() {
+        return true;
+    }
+
+    @Override
+    public void calculateInheritance(ModelLayerLocation location, ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots, Map<ModelLayerLocation, LayerDefinition> roots,
+            ModelInterner interner) {
+        this.resolve();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.client.model.geom.PartPose;
+import net.minecraft.client.model.geom.builders.CubeDefinition;
+import net.minecraft.client.model.geom.builders.CubeDeformation;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An interning pool for the immutable values that make up a layer definition, keyed by value.
+ * Packs repeat the same head, body, and limb cubes and poses thousands of times, so decoding and inheritance reuse one canonical instance for each of them.
+ * <p>
+ * A pool is meant to live for a single reload and should be dropped afterwards, so it does not pin memory.
+ * This class is thread-safe, so it can be shared by multiple decoding tasks at once.
+ * {@link #NONE} can be used where no pool is available, and always creates new instances.
+ */
+public class ModelInterner {
+    public static final ModelInterner NONE = new ModelInterner(false);
+    private final boolean enabled;
+    private final Map<CubeKey, CubeDefinition> cubeDefinitions = new ConcurrentHashMap<>();
+    private final Map<CubeDeformationKey, CubeDeformation> cubeDeformations = new ConcurrentHashMap<>();
+    private final Map<PartPoseKey, PartPose> partPoses = new ConcurrentHashMap<>();
+
+    public ModelInterner() {
+        this(true);
+    }
+
+    private ModelInterner(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            this.cubeDeformations.put(new CubeDeformationKey(0F, 0F, 0F), CubeDeformation.NONE);
+            this.partPoses.put(new PartPoseKey(0F, 0F, 0F, 0F, 0F, 0F), PartPose.ZERO);
+        }
+    }
+
+    public CubeDefinition cubeDefinition(@Nullable String comment, float texU, float texV, float originX, float originY, float originZ,
+            float dimensionsX, float dimensionsY, float dimensionsZ, CubeDeformation grow, boolean mirror, float texScaleX, float texScaleY) {
+        if (!this.enabled)
+            return new CubeDefinition(comment, texU, texV, originX, originY, originZ, dimensionsX, dimensionsY, dimensionsZ, grow, mirror, texScaleX, texScaleY);
+
+        CubeDeformation internedGrow = cubeDeformation(grow.growX, grow.growY, grow.growZ);
+        CubeKey key = new CubeKey(comment, texU, texV, originX, originY, originZ, dimensionsX, dimensionsY, dimensionsZ, internedGrow, mirror, texScaleX, texScaleY);
+        return this.cubeDefinitions.computeIfAbsent(key, k -> new CubeDefinition(comment, texU, texV, originX, originY, originZ,
+                dimensionsX, dimensionsY, dimensionsZ, internedGrow, mirror, texScaleX, texScaleY));
+    }
+
+    public CubeDeformation cubeDeformation(float growX, float growY, float growZ) {
+        if (!this.enabled)
+            return new CubeDeformation(growX, growY, growZ);
+
+        return this.cubeDeformations.computeIfAbsent(new CubeDeformationKey(growX, growY, growZ), k -> new CubeDeformation(growX, growY, growZ));
+    }
+
+    public PartPose partPose(float x, float y, float z, float xRot, float yRot, float zRot) {
+        if (!this.enabled)
+            return PartPose.offsetAndRotation(x, y, z, xRot, yRot, zRot);
+
+        return this.partPoses.computeIfAbsent(new PartPoseKey(x, y, z, xRot, yRot, zRot), k -> PartPose.offsetAndRotation(x, y, z, xRot, yRot, zRot));
+    }
+
+    /**
+     * @return The number of distinct canonical instances held by this pool
+     */
+    public int size() {
+        return this.cubeDefinitions.size() + this.cubeDeformations.size() + this.partPoses.size();
+    }
+
+    // Records compare floats with Float.compare, so only identical values are interned together.
+    // The interned cube deformation is compared by identity, which is safe since it is canonical itself.
+    private record CubeKey(@Nullable String comment, float texU, float texV, float originX, float originY, float originZ,
+            float dimensionsX, float dimensionsY, float dimensionsZ, CubeDeformation grow, boolean mirror, float texScaleX, float texScaleY) {}
+
+    private record CubeDeformationKey(float growX, float growY, float growZ) {}
+
+    private record PartPoseKey(float x, float y, float z, float xRot, float yRot, float zRot) {}
+}
@@ -22,7 +22,6 @@
 
 package me.sizableshrimp.entitymodeljson;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ListMultimap;
 import com.mojang.blaze3d.vertex.PoseStack;
 import net.minecraft.client.model.geom.ModelLayerLocation;
@@ -38,8 +37,8 @@ import net.minecraft.world.entity.LivingEntity;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 
 public class ParentedMeshDefinition extends MeshDefinition {
     private ModelLayerLocation parent;
@@ -131,12 +130,22 @@ public class ParentedMeshDefinition extends MeshDefinition {
      * All children of this mesh definitions' root part definition have the universal cube deformation additively applied.
      * <p>
      * The root part pose is shifted down 24 units if {@link #shouldFixVanillaOffset()} is true.
+     * <p>
+     * If the parent is also a parented mesh definition, it must have calculated its inheritance first; see {@link LayerInheritanceResolver}.
      *
      * @param location The model layer location of this mesh definition, used when merging if {@link #isOverwrite() overwrite} is false
      * @param prevRoots A map of previously defined roots, both in code and earlier resource packs, used when merging if {@link #isOverwrite() overwrite} is false
      * @param roots The merged code + JSON-defined map of model layer locations to layer definition roots; used to find parents
      */
     public void calculateInheritance(ModelLayerLocation location, ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots, Map<ModelLayerLocation, LayerDefinition> roots) {
+        calculateInheritance(location, prevRoots, roots, ModelInterner.NONE);
+    }
+
+    /**
+     * Same as {@link #calculateInheritance(ModelLayerLocation, ListMultimap, Map)}, but uses the interner for all newly created cubes and part poses.
+     */
+    public void calculateInheritance(ModelLayerLocation location, ListMultimap<ModelLayerLocation, LayerDefinition> prevRoots, Map<ModelLayerLocation, LayerDefinition> roots,
+            ModelInterner interner) {
         if (this.calculatedInheritance)
             return;
 
@@ -148,15 +157,18 @@ public class ParentedMeshDefinition extends MeshDefinition {
             inheritChildren(getPartDefinition(roots, parent));
 
         if (universalCubeDeformation != null) {
-            for (PartDefinition child : getRoot().children.values()) {
-                var cubes = new ArrayList<CubeDefinition>();
+            for (var entry : getRoot().children.entrySet()) {
+                PartDefinition child = entry.getValue();
+                var cubes = new ArrayList<CubeDefinition>(child.cubes.size());
                 for (CubeDefinition cube : child.cubes) {
-                    CubeDeformation cubeDef = cube.grow.extend(universalCubeDeformation.growX, universalCubeDeformation.growY, universalCubeDeformation.growZ);
-                    CubeDefinition newCube = EntityModelCodecHolder.createCubeDefinition(Optional.ofNullable(cube.comment),
-                            cube.origin, cube.dimensions, cubeDef, cube.mirror, cube.texCoord, cube.texScale.u(), cube.texScale.v());
+                    CubeDeformation cubeDef = interner.cubeDeformation(cube.grow.growX + universalCubeDeformation.growX, cube.grow.growY + universalCubeDeformation.growY,
+                            cube.grow.growZ + universalCubeDeformation.growZ);
+                    CubeDefinition newCube = interner.cubeDefinition(cube.comment, cube.texCoord.u(), cube.texCoord.v(), cube.origin.x(), cube.origin.y(), cube.origin.z(),
+                            cube.dimensions.x(), cube.dimensions.y(), cube.dimensions.z(), cubeDef, cube.mirror, cube.texScale.u(), cube.texScale.v());
                     cubes.add(newCube);
                 }
-                child.cubes = cubes;
+                // The child may be shared with a parent or previous root, so it is copied on write instead of modified
+                entry.setValue(copyWithCubes(child, cubes));
             }
         }
 
@@ -172,7 +184,7 @@ public class ParentedMeshDefinition extends MeshDefinition {
         if (fixVanillaOffset) {
             PartPose prevPose = getRoot().partPose;
             // Y-axis is inverted so "up" is actually visually down
-            getRoot().partPose = PartPose.offsetAndRotation(prevPose.x, prevPose.y + 24F, prevPose.z, prevPose.xRot, prevPose.yRot, prevPose.zRot);
+            getRoot().partPose = interner.partPose(prevPose.x, prevPose.y + 24F, prevPose.z, prevPose.xRot, prevPose.yRot, prevPose.zRot);
         }
     }
 
@@ -181,21 +193,25 @@ public class ParentedMeshDefinition extends MeshDefinition {
         return layer == null ? null : layer.mesh.getRoot();
     }
 
+    /**
+     * Inherited children are shared with the part definition they came from instead of being deep copied.
+     * Part definitions are treated as immutable once their owning mesh has calculated its inheritance,
+     * so any later modification must {@link #copyWithCubes(PartDefinition, List) copy on write}.
+     */
     private void inheritChildren(PartDefinition partDef) {
         if (partDef == null)
             return;
         for (var entry : partDef.children.entrySet()) {
-            getRoot().children.putIfAbsent(entry.getKey(), copyPartDefinition(entry.getValue()));
+            getRoot().children.putIfAbsent(entry.getKey(), entry.getValue());
         }
     }
 
-    private static PartDefinition copyPartDefinition(PartDefinition partDef) {
-        PartDefinition copy = new PartDefinition(ImmutableList.copyOf(partDef.cubes), partDef.partPose);
-
-        for (var entry : partDef.children.entrySet()) {
-            copy.children.put(entry.getKey(), copyPartDefinition(entry.getValue()));
-        }
-
+    private static PartDefinition copyWithCubes(PartDefinition partDef, List<CubeDefinition> cubes) {
+        PartDefinition copy = partDef instanceof SafePartDefinition
+                ? new SafePartDefinition(cubes, partDef.partPose)
+                : new PartDefinition(cubes, partDef.partPose);
+        // Only this node is copied; its children are still shared
+        copy.children.putAll(partDef.children);
         return copy;
     }
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.model.geom.ModelLayerLocation;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches the entity model and animation directories of asset roots on a background thread,
+ * and collects the model layer locations and animation ids of changed, added, and removed files.
+ * The asset roots, namespaces, and directories leading to the entity model and animation directories are watched for new directories only,
+ * so that files in namespaces or directories created after starting are picked up as well.
+ * Does not depend on a Minecraft client instance; {@link DevResourceWatcher} decides when to apply the collected changes.
+ */
+public class ResourceChangeWatcher {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    public static final String ANIMATIONS_DIRECTORY = "animations/entity";
+    private static final String PATH_SUFFIX = ".json";
+    private static final List<List<String>> TARGET_DIRECTORIES = List.of(List.of(EntityModelPipeline.DIRECTORY.split("/")), List.of(ANIMATIONS_DIRECTORY.split("/")));
+    private final Map<WatchKey, WatchedDirectory> watchedDirectories = new ConcurrentHashMap<>();
+    private final Set<ModelLayerLocation> pendingLayers = ConcurrentHashMap.newKeySet();
+    private final Set<ResourceLocation> pendingAnimations = ConcurrentHashMap.newKeySet();
+    private volatile long lastEventNanos;
+    @Nullable
+    private WatchService watchService;
+
+    /**
+     * Starts watching the {@value EntityModelPipeline#DIRECTORY} and {@value #ANIMATIONS_DIRECTORY} directories of every namespace in the asset roots,
+     * after stopping any previous watch.
+     *
+     * @param assetRoots The {@code assets} directories of the resource packs to watch
+     */
+    public void start(List<Path> assetRoots) throws IOException {
+        stop();
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            for (Path assetRoot : assetRoots) {
+                register(this.watchService, assetRoot, assetRoot);
+            }
+        } catch (IOException e) {
+            stop();
+            throw e;
+        }
+
+        WatchService watchService = this.watchService;
+        Thread thread = new Thread(() -> watch(watchService), "Entity Model JSON Resource Watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching and discards any pending changes.
+     */
+    public void stop() {
+        if (this.watchService != null) {
+            try {
+                // Closing the watch service also stops the thread waiting on it
+                this.watchService.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close resource watcher", e);
+            }
+            this.watchService = null;
+        }
+        this.watchedDirectories.clear();
+        this.pendingLayers.clear();
+        this.pendingAnimations.clear();
+    }
+
+    public int getWatchedDirectoryCount() {
+        return this.watchedDirectories.size();
+    }
+
+    public boolean hasPendingChanges() {
+        return !this.pendingLayers.isEmpty() || !this.pendingAnimations.isEmpty();
+    }
+
+    /**
+     * @return The number of milliseconds since the last change was collected, so that editors which write a file in multiple steps can be waited for
+     */
+    public long getMillisSinceLastEvent() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.lastEventNanos);
+    }
+
+    /**
+     * Removes and returns the model layer locations whose files changed since the last call.
+     */
+    public Set<ModelLayerLocation> takePendingLayers() {
+        Set<ModelLayerLocation> layers = new HashSet<>(this.pendingLayers);
+        this.pendingLayers.removeAll(layers);
+        return layers;
+    }
+
+    /**
+     * Removes and returns the animation ids whose files changed since the last call.
+     */
+    public Set<ResourceLocation> takePendingAnimations() {
+        Set<ResourceLocation> animations = new HashSet<>(this.pendingAnimations);
+        this.pendingAnimations.removeAll(animations);
+        return animations;
+    }
+
+    /**
+     * Watches a directory under an asset root, depending on where it is. Directories inside an entity model or animation directory are watched
+     * for every change, and directories leading to one are only watched for new directories. All other directories are ignored.
+     */
+    private void register(WatchService watchService, Path assetRoot, Path directory) throws IOException {
+        Path relativePath = assetRoot.relativize(directory);
+        // The names after the namespace, which are empty for the asset root and the namespace directories
+        List<String> names = new ArrayList<>();
+        for (int i = 1; i < relativePath.getNameCount(); i++) {
+            names.add(relativePath.getName(i).toString());
+        }
+
+        boolean leadsToTarget = false;
+        for (List<String> target : TARGET_DIRECTORIES) {
+            if (names.size() >= target.size() && names.subList(0, target.size()).equals(target)) {
+                registerAll(watchService, assetRoot, directory);
+                return;
+            }
+            leadsToTarget |= names.size() < target.size() && target.subList(0, names.size()).equals(names);
+        }
+        if (!leadsToTarget)
+            return;
+
+        WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE);
+        this.watchedDirectories.put(key, new WatchedDirectory(assetRoot, directory));
+        try (Stream<Path> children = Files.list(directory)) {
+            for (Path child : children.filter(Files::isDirectory).toList()) {
+                register(watchService, assetRoot, child);
+            }
+        }
+    }
+
+    private void registerAll(WatchService watchService, Path assetRoot, Path directory) throws IOException {
+
+        try (Stream<Path> directories = Files.walk(directory)) {
+            for (Path path : directories.filter(Files::isDirectory).toList()) {
+                WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                this.watchedDirectories.put(key, new WatchedDirectory(assetRoot, path));
+            }
+        }
+    }
+
+    private void watch(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            WatchedDirectory watchedDirectory = this.watchedDirectories.get(key);
+            if (watchedDirectory != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        LOGGER.warn("Missed some entity model or animation changes in {}; use F3+T to reload them", watchedDirectory.directory());
+                        continue;
+                    }
+                    onChanged(watchService, watchedDirectory, watchedDirectory.directory().resolve((Path) event.context()), event.kind());
+                }
+            }
+
+            if (!key.reset())
+                this.watchedDirectories.remove(key);
+        }
+    }
+
+    private void onChanged(WatchService watchService, WatchedDirectory watchedDirectory, Path path, WatchEvent.Kind<?> kind) {
+        try {
+            if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                // New directories need to be watched as well, and may already contain files if they were moved or copied in
+                register(watchService, watchedDirectory.assetRoot(), path);
+                try (Stream<Path> files = Files.walk(path)) {
+                    files.filter(Files::isRegularFile).forEach(file -> enqueue(watchedDirectory.assetRoot(), file));
+                }
+                return;
+            }
+        } catch (IOException | ClosedWatchServiceException e) {
+            LOGGER.warn("Failed to watch new directory {}", path, e);
+            return;
+        }
+
+        enqueue(watchedDirectory.assetRoot(), path);
+    }
+
+    private void enqueue(Path assetRoot, Path file) {
+        Path relativePath = assetRoot.relativize(file);
+        if (relativePath.getNameCount() < 2)
+            return;
+
+        String namespace = relativePath.getName(0).toString();
+        String path = relativePath.subpath(1, relativePath.getNameCount()).toString().replace(file.getFileSystem().getSeparator(), "/");
+        if (!path.endsWith(PATH_SUFFIX))
+            return;
+
+        if (path.startsWith(EntityModelPipeline.DIRECTORY + '/')) {
+            ResourceLocation subLocation = ResourceLocation.tryParse(namespace + ':' + path.substring(EntityModelPipeline.DIRECTORY.length() + 1, path.length() - PATH_SUFFIX.length()));
+            ModelLayerLocation layerLocation = subLocation == null ? null : EntityModelPipeline.mapPathToModelLayerLoc(subLocation);
+            if (layerLocation != null)
+                this.pendingLayers.add(layerLocation);
+        } else if (path.startsWith(ANIMATIONS_DIRECTORY + '/')) {
+            ResourceLocation id = ResourceLocation.tryParse(namespace + ':' + path.substring(ANIMATIONS_DIRECTORY.length() + 1, path.length() - PATH_SUFFIX.length()));
+            if (id != null)
+                this.pendingAnimations.add(id);
+        } else {
+            return;
+        }
+
+        this.lastEventNanos = System.nanoTime();
+    }
+
+    private record WatchedDirectory(Path assetRoot, Path directory) {}
+}
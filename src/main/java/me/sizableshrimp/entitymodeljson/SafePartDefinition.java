@@ -30,7 +30,6 @@ import net.minecraft.client.model.geom.builders.PartDefinition;
 
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * A safe variant of {@link PartDefinition} that returns a {@link SafeModelPart safe model part} when baking.
@@ -40,12 +39,21 @@ public class SafePartDefinition extends PartDefinition {
         super(cubes, partPose);
     }
 
-    // This should stay in sync with the superclass implementation.
+    // This should stay in sync with the superclass implementation, except that the baked cubes are shared through the BakedGeometryCache.
     @Override
     public SafeModelPart bake(int texWidth, int texHeight) {
-        Object2ObjectArrayMap<String, ModelPart> children = this.children.entrySet().stream()
-                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().bake(texWidth, texHeight), (firstPart, secondPart) -> firstPart, Object2ObjectArrayMap::new));
-        List<ModelPart.Cube> cubes = this.cubes.stream().map(cube -> cube.bake(texWidth, texHeight)).toList();
+        // Keys of the children map are already unique, so the array map can be built directly without any per-key lookup or merge function
+        int childCount = this.children.size();
+        Object[] childNames = new Object[childCount];
+        Object[] childParts = new Object[childCount];
+        int i = 0;
+        for (Map.Entry<String, PartDefinition> entry : this.children.entrySet()) {
+            childNames[i] = entry.getKey();
+            childParts[i] = entry.getValue().bake(texWidth, texHeight);
+            i++;
+        }
+        Object2ObjectArrayMap<String, ModelPart> children = new Object2ObjectArrayMap<>(childNames, childParts);
+        List<ModelPart.Cube> cubes = BakedGeometryCache.getCubes(this, texWidth, texHeight);
 
         SafeModelPart modelPart = new SafeModelPart(cubes, children);
         modelPart.setInitialPose(this.partPose);
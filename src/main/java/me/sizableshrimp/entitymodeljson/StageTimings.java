@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson;
+
+import net.minecraft.util.profiling.InactiveProfiler;
+import net.minecraft.util.profiling.ProfilerFiller;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the wall time of consecutive stages, while also pushing each stage as a section to a {@link ProfilerFiller}.
+ * Only one stage is active at a time; starting a new stage ends the previous one.
+ * Stages with the same name are summed up.
+ */
+public class StageTimings {
+    private final ProfilerFiller profiler;
+    private final Map<String, Long> stageNanos = new LinkedHashMap<>();
+    @Nullable
+    private String stage;
+    private long stageStart;
+
+    public StageTimings() {
+        this(InactiveProfiler.INSTANCE);
+    }
+
+    public StageTimings(ProfilerFiller profiler) {
+        this.profiler = profiler;
+    }
+
+    public void start(String stage) {
+        end();
+        this.profiler.push(stage);
+        this.stage = stage;
+        this.stageStart = System.nanoTime();
+    }
+
+    public void end() {
+        if (this.stage == null)
+            return;
+
+        this.stageNanos.merge(this.stage, System.nanoTime() - this.stageStart, Long::sum);
+        this.profiler.pop();
+        this.stage = null;
+    }
+
+    /**
+     * @return The wall time in nanoseconds of every ended stage, in the order they were first started
+     */
+    public Map<String, Long> getStageNanos() {
+        return Collections.unmodifiableMap(this.stageNanos);
+    }
+
+    public long getTotalNanos() {
+        return this.stageNanos.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        this.stageNanos.forEach((stage, nanos) -> {
+            if (!builder.isEmpty())
+                builder.append(", ");
+            builder.append(stage).append(' ').append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms");
+        });
+        return builder.toString();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import net.minecraft.client.model.HierarchicalModel;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A reference to an entity animation by id, which resolves to a dense index into the current {@link EntityAnimations} snapshot.
+ * The index is resolved again only when a reload publishes a new snapshot, so looking up the animation is an epoch check and an array load.
+ * <p>
+ * Handles can be created before animations are loaded and stay valid across reloads.
+ */
+public final class AnimationHandle {
+    private final ResourceLocation id;
+    // The epoch of the snapshot in the upper 32 bits and the index in the lower 32 bits, so that both are always read together
+    private volatile long resolved = -1L;
+
+    AnimationHandle(ResourceLocation id) {
+        this.id = id;
+    }
+
+    public ResourceLocation getId() {
+        return this.id;
+    }
+
+    /**
+     * @return The current animation of this handle, or null if no animation with this id is loaded
+     */
+    @Nullable
+    public CompiledAnimation get() {
+        EntityAnimations.Snapshot snapshot = EntityAnimations.getSnapshot();
+        long resolved = this.resolved;
+        int index;
+        if ((int) (resolved >>> 32) == snapshot.epoch()) {
+            index = (int) resolved;
+        } else {
+            index = snapshot.indexOf(this.id);
+            this.resolved = ((long) snapshot.epoch() << 32) | (index & 0xFFFFFFFFL);
+        }
+
+        return index < 0 ? null : snapshot.get(index);
+    }
+
+    @NotNull
+    public CompiledAnimation getOrThrow() {
+        CompiledAnimation animation = this.get();
+        if (animation == null)
+            throw new IllegalArgumentException("Missing entity animation definition with id " + this.id);
+
+        return animation;
+    }
+
+    public boolean isPresent() {
+        return this.get() != null;
+    }
+
+    /**
+     * Resolves the bones of the current animation of this handle to the parts of the given model,
+     * and again whenever a reload replaces the animation.
+     *
+     * @see CompiledAnimation#bind(HierarchicalModel)
+     */
+    public BoundAnimation bind(HierarchicalModel<?> model) {
+        return new BoundAnimation(this, model);
+    }
+
+    @Override
+    public String toString() {
+        return "AnimationHandle[" + this.id + "]";
+    }
+}
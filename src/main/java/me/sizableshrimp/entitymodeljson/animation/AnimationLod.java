@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import me.sizableshrimp.entitymodeljson.EntityModelJsonConfig;
+import net.minecraft.client.Minecraft;
+import net.minecraft.world.entity.Entity;
+import net.minecraftforge.event.TickEvent;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An opt-in level of detail policy for animations played through {@link BoundAnimation#animate(Entity, net.minecraft.world.entity.AnimationState, float, float)}.
+ * <p>
+ * Entities are sorted into distance bands from the camera. Each band has an update interval, where the animation time is rounded down
+ * to that interval and the pose sampled at an interval boundary is reused until the next one, see {@link LodPoseCache}.
+ * Bands starting at a configured index only sample and animate the top-level bones of a model.
+ * The number of animated entities per band is counted every frame, even while the policy is disabled, to help tune the bands.
+ */
+public class AnimationLod {
+    private static boolean enabled;
+    private static List<? extends Integer> distancesConfig;
+    private static List<? extends Integer> intervalsConfig;
+    // The squared lower bound of every band but the first
+    private static double[] bandDistancesSqr = new double[0];
+    private static long[] bandIntervals = new long[1];
+    private static int topLevelOnlyBand;
+    private static int[] counts = new int[1];
+    private static int[] lastFrameCounts = new int[1];
+
+    public static void onRenderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase != TickEvent.Phase.START)
+            return;
+
+        EntityModelJsonConfig.Client config = EntityModelJsonConfig.CLIENT;
+        enabled = config.lodEnabled.get();
+        topLevelOnlyBand = config.lodTopLevelOnlyBand.get();
+        List<? extends Integer> distances = config.lodDistances.get();
+        List<? extends Integer> intervals = config.lodUpdateIntervals.get();
+        // The config values only change when the config is reloaded
+        if (distances != distancesConfig || intervals != intervalsConfig) {
+            distancesConfig = distances;
+            intervalsConfig = intervals;
+            bandDistancesSqr = distances.stream().sorted().mapToDouble(distance -> (double) distance * distance).toArray();
+            bandIntervals = new long[bandDistancesSqr.length + 1];
+            for (int i = 0; i < bandIntervals.length; i++) {
+                // Bands without a configured interval use the interval of the last configured band
+                bandIntervals[i] = intervals.isEmpty() ? 0 : intervals.get(Math.min(i, intervals.size() - 1));
+            }
+            counts = new int[bandIntervals.length];
+            lastFrameCounts = new int[bandIntervals.length];
+        }
+
+        int[] frameCounts = lastFrameCounts;
+        lastFrameCounts = counts;
+        counts = frameCounts;
+        Arrays.fill(counts, 0);
+    }
+
+    /**
+     * Finds the distance band of the entity and counts it for this frame.
+     *
+     * @return The band of the entity if the policy is enabled, or {@code 0} otherwise
+     */
+    static int getBand(Entity entity) {
+        double distanceSqr = entity.distanceToSqr(Minecraft.getInstance().gameRenderer.getMainCamera().getPosition());
+        int band = 0;
+        while (band < bandDistancesSqr.length && distanceSqr >= bandDistancesSqr[band]) {
+            band++;
+        }
+
+        counts[band]++;
+        return enabled ? band : 0;
+    }
+
+    /**
+     * Rounds the accumulated time of an animation down to the update interval of the band.
+     */
+    static long getUpdateTime(int band, long accumulatedTime) {
+        long interval = bandIntervals[band];
+        return interval <= 1 ? accumulatedTime : accumulatedTime - Math.floorMod(accumulatedTime, interval);
+    }
+
+    /**
+     * @return True if the band updates its poses less often than every frame
+     */
+    static boolean isReducedRate(int band) {
+        return enabled && bandIntervals[band] > 1;
+    }
+
+    static boolean isTopLevelOnly(int band) {
+        return enabled && band >= topLevelOnlyBand;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return The number of distance bands, which is one more than the number of configured distances
+     */
+    public static int getBandCount() {
+        return bandIntervals.length;
+    }
+
+    /**
+     * @return The distance in blocks at which the band starts
+     */
+    public static double getBandStart(int band) {
+        return band == 0 ? 0 : Math.sqrt(bandDistancesSqr[band - 1]);
+    }
+
+    public static long getUpdateInterval(int band) {
+        return bandIntervals[band];
+    }
+
+    public static boolean isTopLevelOnlyBand(int band) {
+        return band >= topLevelOnlyBand;
+    }
+
+    /**
+     * @return The number of animations played in each band during the last complete frame
+     */
+    public static int[] getLastFrameCounts() {
+        return lastFrameCounts.clone();
+    }
+}
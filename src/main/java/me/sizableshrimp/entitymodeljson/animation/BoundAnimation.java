@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.client.model.HierarchicalModel;
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.world.entity.AnimationState;
+import net.minecraft.world.entity.Entity;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link CompiledAnimation} whose bone names were resolved to the {@link ModelPart model parts} of one model instance.
+ * Playing a bound animation only samples keyframes and applies poses, without searching the part tree.
+ * <p>
+ * A bound animation is only valid for the model instance it was bound to.
+ * When bound through an {@link AnimationHandle}, the bones are resolved again whenever a reload replaces the animation.
+ */
+public final class BoundAnimation {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    // Only kept when bound through a handle, since the model is needed again to rebind after a reload
+    @Nullable
+    private final HierarchicalModel<?> model;
+    @Nullable
+    private final AnimationHandle handle;
+    private CompiledAnimation animation;
+    private ModelPart[] bones;
+    // Only the bones which are direct children of the model root, with all other bones left out
+    private ModelPart[] topLevelBones;
+    private List<String> missingBones;
+    // Poses sampled at level of detail update times, created on first use and dropped when the animation is bound again
+    @Nullable
+    private LodPoseCache lodPoses;
+    @Nullable
+    private LodPoseCache topLevelLodPoses;
+
+    BoundAnimation(CompiledAnimation animation, HierarchicalModel<?> model) {
+        this.model = null;
+        this.handle = null;
+        this.bind(animation, model);
+    }
+
+    BoundAnimation(AnimationHandle handle, HierarchicalModel<?> model) {
+        this.model = model;
+        this.handle = handle;
+        this.bind(handle.getOrThrow(), model);
+    }
+
+    private void bind(CompiledAnimation animation, HierarchicalModel<?> model) {
+        int boneCount = animation.getBoneCount();
+        ModelPart[] bones = new ModelPart[boneCount];
+        ModelPart[] topLevelBones = new ModelPart[boneCount];
+        List<String> missingBones = new ArrayList<>();
+        ModelPart root = model.root();
+        for (int i = 0; i < boneCount; i++) {
+            String boneName = animation.getBoneName(i);
+            bones[i] = model.getAnyDescendantWithName(boneName).orElse(null);
+            if (bones[i] == null) {
+                missingBones.add(boneName);
+            } else if (root.hasChild(boneName) && root.getChild(boneName) == bones[i]) {
+                topLevelBones[i] = bones[i];
+            }
+        }
+
+        if (!missingBones.isEmpty())
+            LOGGER.warn("Entity animation {} animates bones {} which are missing from model {}", animation.getId(), missingBones, model.getClass().getName());
+
+        this.animation = animation;
+        this.bones = bones;
+        this.topLevelBones = topLevelBones;
+        this.missingBones = List.copyOf(missingBones);
+        this.lodPoses = null;
+        this.topLevelLodPoses = null;
+    }
+
+    /**
+     * Binds the current animation of the handle if a reload replaced it.
+     * An animation which was removed by a reload keeps playing the last animation it was bound to.
+     */
+    private void refresh() {
+        if (this.handle == null)
+            return;
+
+        CompiledAnimation current = this.handle.get();
+        if (current != null && current != this.animation)
+            this.bind(current, this.model);
+    }
+
+    public CompiledAnimation getAnimation() {
+        this.refresh();
+        return this.animation;
+    }
+
+    /**
+     * @return The names of the bones of the animation which the model does not have, which are skipped during playback
+     */
+    public List<String> getMissingBones() {
+        this.refresh();
+        return this.missingBones;
+    }
+
+    /**
+     * Applies the animation to the bound model, equivalent to {@link net.minecraft.client.animation.KeyframeAnimations#animate}.
+     * Must be called on the render thread.
+     *
+     * @param accumulatedTime The time the animation has been playing for, in milliseconds
+     * @param scale The scale applied to every sampled target
+     */
+    public void animate(long accumulatedTime, float scale) {
+        this.refresh();
+        this.animation.animate(this.bones, accumulatedTime, scale);
+    }
+
+    /**
+     * Updates the animation state and applies the animation to the bound model if the state is started.
+     *
+     * @see EntityAnimations#animate(HierarchicalModel, AnimationState, CompiledAnimation, float, float)
+     */
+    public void animate(AnimationState state, float ageInTicks, float speed) {
+        state.updateTime(ageInTicks, speed);
+        if (state.isStarted())
+            this.animate(state.getAccumulatedTime(), 1.0F);
+    }
+
+    /**
+     * Updates the animation state and applies the animation to the bound model if the state is started,
+     * following the {@link AnimationLod level of detail policy} for the distance of the entity from the camera.
+     * <p>
+     * In bands with an update interval, the pose is only sampled when the animation time crosses an interval boundary,
+     * and the last sampled pose is applied again until then. Bands which only animate top-level bones also only sample their channels.
+     *
+     * @param entity The entity being rendered with the bound model
+     */
+    public void animate(Entity entity, AnimationState state, float ageInTicks, float speed) {
+        state.updateTime(ageInTicks, speed);
+        if (!state.isStarted())
+            return;
+
+        this.refresh();
+        int band = AnimationLod.getBand(entity);
+        boolean topLevelOnly = AnimationLod.isTopLevelOnly(band);
+        if (!topLevelOnly && !AnimationLod.isReducedRate(band)) {
+            this.animation.animate(this.bones, state.getAccumulatedTime(), 1.0F);
+            return;
+        }
+
+        // The model is usually shared by every entity of a type, so poses are kept per update time instead of per entity
+        LodPoseCache poses;
+        if (topLevelOnly) {
+            if (this.topLevelLodPoses == null)
+                this.topLevelLodPoses = new LodPoseCache(this.animation.getChannelCount());
+            poses = this.topLevelLodPoses;
+        } else {
+            if (this.lodPoses == null)
+                this.lodPoses = new LodPoseCache(this.animation.getChannelCount());
+            poses = this.lodPoses;
+        }
+
+        ModelPart[] bones = topLevelOnly ? this.topLevelBones : this.bones;
+        long time = AnimationLod.getUpdateTime(band, state.getAccumulatedTime());
+        int slot = poses.findOrAdd(time, PoseBatching.getFrame());
+        if (slot == LodPoseCache.NOT_CACHED) {
+            // Too many update times are in use at once to keep a pose for each of them
+            this.animation.animate(bones, time, 1.0F);
+            return;
+        }
+        if (slot < 0) {
+            slot = -1 - slot;
+            this.animation.sample(bones, time, poses.x, poses.y, poses.z, slot * this.animation.getChannelCount());
+        }
+        this.animation.apply(bones, poses.x, poses.y, poses.z, slot * this.animation.getChannelCount(), 1.0F);
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import com.mojang.math.Vector3f;
+import net.minecraft.client.animation.AnimationChannel;
+import net.minecraft.client.animation.AnimationDefinition;
+import net.minecraft.client.animation.Keyframe;
+import net.minecraft.client.animation.KeyframeAnimations;
+import net.minecraft.client.model.HierarchicalModel;
+import net.minecraft.client.model.geom.ModelPart;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.Mth;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A flattened form of an {@link AnimationDefinition}, built once at load time so that sampling does not allocate.
+ * <p>
+ * The timestamps and targets of all keyframes are packed into flat arrays, where each channel owns a contiguous range of keyframes
+ * and each bone owns a contiguous range of channels. Keyframes are looked up with a binary search.
+ * Sampling gives the same results as {@link KeyframeAnimations#animate}, including for custom targets and interpolations,
+ * with one deliberate difference: sampling a channel exactly at the timestamp of its only keyframe, or at a timestamp shared by its first two keyframes,
+ * holds the earlier keyframe, where vanilla divides zero by zero and poses the bone with NaN.
+ * <p>
+ * Use {@link #bind(HierarchicalModel)} to resolve the bones of a model once, so that playback only samples and applies poses.
+ */
+public final class CompiledAnimation {
+    private static final byte TARGET_POSITION = 0;
+    private static final byte TARGET_ROTATION = 1;
+    private static final byte TARGET_SCALE = 2;
+    private static final byte TARGET_CUSTOM = 3;
+    private static final byte INTERPOLATION_LINEAR = 0;
+    private static final byte INTERPOLATION_CATMULLROM = 1;
+    private static final byte INTERPOLATION_CUSTOM = 2;
+    // Only used for custom targets and interpolations, which need a vector; sampling only happens on the render thread
+    private static final Vector3f VECTOR_CACHE = new Vector3f();
+    private static final float[] SAMPLE_X = new float[1];
+    private static final float[] SAMPLE_Y = new float[1];
+    private static final float[] SAMPLE_Z = new float[1];
+
+    private final ResourceLocation id;
+    private final AnimationDefinition definition;
+    private final String[] boneNames;
+    // The channels of bone i are in [boneChannels[i], boneChannels[i + 1])
+    private final int[] boneChannels;
+    private final byte[] channelTargets;
+    private final AnimationChannel[] channels;
+    // The keyframes of channel i are in [channelKeyframes[i], channelKeyframes[i + 1])
+    private final int[] channelKeyframes;
+    private final float[] timestamps;
+    // Three floats per keyframe
+    private final float[] targets;
+    private final byte[] interpolations;
+    // Null if any keyframe uses a custom interpolation, which may not scale linearly and so cannot share unscaled samples
+    @Nullable
+    private final PoseBuffer poseBuffer;
+    // Poses of a looping animation baked at evenly spaced times over its length, indexed as frame * channelCount + channel
+    @Nullable
+    private float[] bakedX;
+    @Nullable
+    private float[] bakedY;
+    @Nullable
+    private float[] bakedZ;
+    private int bakedIntervals;
+    // Bound animations per model root, for callers which do not bind the animation themselves
+    private final Map<ModelPart, BoundAnimation> boundAnimations = new WeakHashMap<>();
+
+    private CompiledAnimation(ResourceLocation id, AnimationDefinition definition, String[] boneNames, int[] boneChannels, byte[] channelTargets, AnimationChannel[] channels,
+            int[] channelKeyframes, float[] timestamps, float[] targets, byte[] interpolations) {
+        this.id = id;
+        this.definition = definition;
+        this.boneNames = boneNames;
+        this.boneChannels = boneChannels;
+        this.channelTargets = channelTargets;
+        this.channels = channels;
+        this.channelKeyframes = channelKeyframes;
+        this.timestamps = timestamps;
+        this.targets = targets;
+        this.interpolations = interpolations;
+        boolean customInterpolation = false;
+        for (byte interpolation : interpolations) {
+            customInterpolation |= interpolation == INTERPOLATION_CUSTOM;
+        }
+        this.poseBuffer = customInterpolation ? null : new PoseBuffer(channels.length);
+    }
+
+    public static CompiledAnimation compile(ResourceLocation id, AnimationDefinition definition) {
+        Map<String, List<AnimationChannel>> boneAnimations = definition.boneAnimations();
+        int channelCount = 0;
+        int keyframeCount = 0;
+        for (List<AnimationChannel> boneChannels : boneAnimations.values()) {
+            channelCount += boneChannels.size();
+            for (AnimationChannel channel : boneChannels) {
+                keyframeCount += channel.keyframes().length;
+            }
+        }
+
+        String[] boneNames = new String[boneAnimations.size()];
+        int[] boneChannels = new int[boneNames.length + 1];
+        byte[] channelTargets = new byte[channelCount];
+        AnimationChannel[] channels = new AnimationChannel[channelCount];
+        int[] channelKeyframes = new int[channelCount + 1];
+        float[] timestamps = new float[keyframeCount];
+        float[] targets = new float[keyframeCount * 3];
+        byte[] interpolations = new byte[keyframeCount];
+
+        int bone = 0;
+        int channelIdx = 0;
+        int keyframeIdx = 0;
+        for (Map.Entry<String, List<AnimationChannel>> entry : boneAnimations.entrySet()) {
+            boneNames[bone] = entry.getKey();
+            boneChannels[bone] = channelIdx;
+            for (AnimationChannel channel : entry.getValue()) {
+                channels[channelIdx] = channel;
+                channelTargets[channelIdx] = getTargetType(channel.target());
+                channelKeyframes[channelIdx] = keyframeIdx;
+                for (Keyframe keyframe : channel.keyframes()) {
+                    timestamps[keyframeIdx] = keyframe.timestamp();
+                    targets[keyframeIdx * 3] = keyframe.target().x();
+                    targets[keyframeIdx * 3 + 1] = keyframe.target().y();
+                    targets[keyframeIdx * 3 + 2] = keyframe.target().z();
+                    interpolations[keyframeIdx] = getInterpolationType(keyframe.interpolation());
+                    keyframeIdx++;
+                }
+                channelIdx++;
+            }
+            bone++;
+        }
+        boneChannels[bone] = channelIdx;
+        channelKeyframes[channelIdx] = keyframeIdx;
+
+        return new CompiledAnimation(id, definition, boneNames, boneChannels, channelTargets, channels, channelKeyframes, timestamps, targets, interpolations);
+    }
+
+    private static byte getTargetType(AnimationChannel.Target target) {
+        if (target == AnimationChannel.Targets.POSITION) {
+            return TARGET_POSITION;
+        } else if (target == AnimationChannel.Targets.ROTATION) {
+            return TARGET_ROTATION;
+        } else if (target == AnimationChannel.Targets.SCALE) {
+            return TARGET_SCALE;
+        } else {
+            return TARGET_CUSTOM;
+        }
+    }
+
+    private static byte getInterpolationType(AnimationChannel.Interpolation interpolation) {
+        if (interpolation == AnimationChannel.Interpolations.LINEAR) {
+            return INTERPOLATION_LINEAR;
+        } else if (interpolation == AnimationChannel.Interpolations.CATMULLROM) {
+            return INTERPOLATION_CATMULLROM;
+        } else {
+            return INTERPOLATION_CUSTOM;
+        }
+    }
+
+    public ResourceLocation getId() {
+        return this.id;
+    }
+
+    int getBoneCount() {
+        return this.boneNames.length;
+    }
+
+    String getBoneName(int bone) {
+        return this.boneNames[bone];
+    }
+
+    int getChannelCount() {
+        return this.channels.length;
+    }
+
+    /**
+     * @return The animation definition this was compiled from
+     */
+    public AnimationDefinition getDefinition() {
+        return this.definition;
+    }
+
+    public float lengthInSeconds() {
+        return this.definition.lengthInSeconds();
+    }
+
+    public boolean looping() {
+        return this.definition.looping();
+    }
+
+    /**
+     * Resolves the bones of this animation to the parts of the given model.
+     * Bones which the model does not have are logged and skipped during playback.
+     *
+     * @param model The model to bind to, whose root must already be set
+     * @return The bound animation, which should be kept for as long as the model instance is used
+     */
+    public BoundAnimation bind(HierarchicalModel<?> model) {
+        return new BoundAnimation(this, model);
+    }
+
+    /**
+     * Applies this animation to the bones of the given model, equivalent to {@link KeyframeAnimations#animate}.
+     * The animation is bound once per model root and the binding is remembered afterwards;
+     * prefer keeping the result of {@link #bind(HierarchicalModel)} instead.
+     * Must be called on the render thread.
+     *
+     * @param model The model to animate
+     * @param accumulatedTime The time this animation has been playing for, in milliseconds
+     * @param scale The scale applied to every sampled target
+     */
+    public void animate(HierarchicalModel<?> model, long accumulatedTime, float scale) {
+        BoundAnimation boundAnimation = this.boundAnimations.get(model.root());
+        if (boundAnimation == null) {
+            boundAnimation = this.bind(model);
+            this.boundAnimations.put(model.root(), boundAnimation);
+        }
+
+        boundAnimation.animate(accumulatedTime, scale);
+    }
+
+    /**
+     * Applies this animation to already resolved bones, indexed in the same order as {@link #boneNames}.
+     * When pose batching is enabled, the channels are sampled once per distinct quantized time per frame and shared between all models.
+     * A pose quantization step above one millisecond rounds the time down first, so the result is then no longer equivalent to vanilla.
+     */
+    void animate(ModelPart[] bones, long accumulatedTime, float scale) {
+        if (this.bakedX != null) {
+            this.animateBaked(bones, accumulatedTime, scale);
+            return;
+        }
+
+        if (this.poseBuffer == null || !PoseBatching.isEnabled()) {
+            float elapsedSeconds = getElapsedSeconds(accumulatedTime);
+            for (int bone = 0; bone < bones.length; bone++) {
+                ModelPart part = bones[bone];
+                if (part == null)
+                    continue;
+
+                for (int channel = this.boneChannels[bone]; channel < this.boneChannels[bone + 1]; channel++) {
+                    this.sampleChannel(channel, elapsedSeconds, scale, SAMPLE_X, SAMPLE_Y, SAMPLE_Z, 0);
+                    applyTarget(part, channel, SAMPLE_X[0], SAMPLE_Y[0], SAMPLE_Z[0]);
+                }
+            }
+            return;
+        }
+
+        long time = PoseBatching.quantize(accumulatedTime);
+        int slot = this.poseBuffer.findOrAdd(time, PoseBatching.getFrame());
+        int channelCount = this.channels.length;
+        if (slot < 0) {
+            slot = -1 - slot;
+            // Samples are stored unscaled, which is exact for the built-in interpolations since they scale linearly
+            float elapsedSeconds = getElapsedSeconds(time);
+            for (int channel = 0; channel < channelCount; channel++) {
+                this.sampleChannel(channel, elapsedSeconds, 1.0F, this.poseBuffer.x, this.poseBuffer.y, this.poseBuffer.z, slot * channelCount + channel);
+            }
+        }
+
+        this.apply(bones, this.poseBuffer.x, this.poseBuffer.y, this.poseBuffer.z, slot * channelCount, scale);
+    }
+
+    /**
+     * Samples only the channels of the given bones at the given time, unscaled, into index {@code offset + channel} of the arrays.
+     * Channels of bones which are null are skipped, so that leaving out bones also saves their sampling.
+     */
+    void sample(ModelPart[] bones, long accumulatedTime, float[] x, float[] y, float[] z, int offset) {
+        float elapsedSeconds = getElapsedSeconds(accumulatedTime);
+        float position = 0;
+        int frame = 0;
+        float delta = 0;
+        int channelCount = this.channels.length;
+        if (this.bakedX != null) {
+            position = elapsedSeconds / this.definition.lengthInSeconds() * this.bakedIntervals;
+            frame = Math.max(0, Math.min(Mth.floor(position), this.bakedIntervals - 1));
+            delta = position - frame;
+        }
+
+        for (int bone = 0; bone < bones.length; bone++) {
+            if (bones[bone] == null)
+                continue;
+
+            for (int channel = this.boneChannels[bone]; channel < this.boneChannels[bone + 1]; channel++) {
+                if (this.bakedX == null) {
+                    this.sampleChannel(channel, elapsedSeconds, 1.0F, x, y, z, offset + channel);
+                } else {
+                    int baked = frame * channelCount + channel;
+                    x[offset + channel] = Mth.lerp(delta, this.bakedX[baked], this.bakedX[baked + channelCount]);
+                    y[offset + channel] = Mth.lerp(delta, this.bakedY[baked], this.bakedY[baked + channelCount]);
+                    z[offset + channel] = Mth.lerp(delta, this.bakedZ[baked], this.bakedZ[baked + channelCount]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies unscaled samples stored at index {@code offset + channel} of the arrays to the given bones.
+     */
+    void apply(ModelPart[] bones, float[] x, float[] y, float[] z, int offset, float scale) {
+        for (int bone = 0; bone < bones.length; bone++) {
+            ModelPart part = bones[bone];
+            if (part == null)
+                continue;
+
+            for (int channel = this.boneChannels[bone]; channel < this.boneChannels[bone + 1]; channel++) {
+                applyTarget(part, channel, x[offset + channel] * scale, y[offset + channel] * scale, z[offset + channel] * scale);
+            }
+        }
+    }
+
+    /**
+     * Looks up the baked poses around the current time and interpolates linearly between them.
+     */
+    private void animateBaked(ModelPart[] bones, long accumulatedTime, float scale) {
+        float position = getElapsedSeconds(accumulatedTime) / this.definition.lengthInSeconds() * this.bakedIntervals;
+        int frame = Math.max(0, Math.min(Mth.floor(position), this.bakedIntervals - 1));
+        float delta = position - frame;
+        int channelCount = this.channels.length;
+        int offset = frame * channelCount;
+        int nextOffset = offset + channelCount;
+
+        for (int bone = 0; bone < bones.length; bone++) {
+            ModelPart part = bones[bone];
+            if (part == null)
+                continue;
+
+            for (int channel = this.boneChannels[bone]; channel < this.boneChannels[bone + 1]; channel++) {
+                applyTarget(part, channel,
+                        Mth.lerp(delta, this.bakedX[offset + channel], this.bakedX[nextOffset + channel]) * scale,
+                        Mth.lerp(delta, this.bakedY[offset + channel], this.bakedY[nextOffset + channel]) * scale,
+                        Mth.lerp(delta, this.bakedZ[offset + channel], this.bakedZ[nextOffset + channel]) * scale);
+            }
+        }
+    }
+
+    /**
+     * @return True if any keyframe uses a custom interpolation, which prevents baking and batching poses
+     */
+    boolean usesCustomInterpolation() {
+        return this.poseBuffer == null;
+    }
+
+    /**
+     * Samples the poses of this looping animation at a fixed rate into tables, which playback then interpolates between instead of sampling keyframes.
+     * Must be called before this animation is published.
+     *
+     * @param sampleRate The number of poses per second of the animation
+     * @param budgetBytes The maximum size of the baked tables
+     * @return True if the poses were baked, or false if the tables would exceed the budget
+     */
+    boolean bake(float sampleRate, int budgetBytes) {
+        if (!this.definition.looping() || this.usesCustomInterpolation() || this.definition.lengthInSeconds() <= 0 || sampleRate <= 0)
+            throw new IllegalStateException("Entity animation " + this.id + " cannot be baked");
+
+        int intervals = Math.max(1, Mth.ceil(this.definition.lengthInSeconds() * sampleRate));
+        int channelCount = this.channels.length;
+        long size = (long) (intervals + 1) * channelCount * 3 * Float.BYTES;
+        if (size > budgetBytes)
+            return false;
+
+        float[] x = new float[(intervals + 1) * channelCount];
+        float[] y = new float[x.length];
+        float[] z = new float[x.length];
+        for (int frame = 0; frame <= intervals; frame++) {
+            float seconds = this.definition.lengthInSeconds() * frame / intervals;
+            for (int channel = 0; channel < channelCount; channel++) {
+                this.sampleChannel(channel, seconds, 1.0F, x, y, z, frame * channelCount + channel);
+            }
+        }
+
+        this.bakedX = x;
+        this.bakedY = y;
+        this.bakedZ = z;
+        this.bakedIntervals = intervals;
+        return true;
+    }
+
+    public boolean isBaked() {
+        return this.bakedX != null;
+    }
+
+    private float getElapsedSeconds(long accumulatedTime) {
+        float seconds = (float) accumulatedTime / 1000.0F;
+        return this.definition.looping() ? seconds % this.definition.lengthInSeconds() : seconds;
+    }
+
+    private void sampleChannel(int channel, float elapsedSeconds, float scale, float[] x, float[] y, float[] z, int index) {
+        int start = this.channelKeyframes[channel];
+        int end = this.channelKeyframes[channel + 1];
+        int current = Math.max(start, this.findKeyframe(start, end, elapsedSeconds) - 1);
+        int next = Math.min(end - 1, current + 1);
+        float duration = this.timestamps[next] - this.timestamps[current];
+        float elapsed = elapsedSeconds - this.timestamps[current];
+        // Matches the infinities vanilla clamps when dividing by a zero duration, but holds the earlier keyframe where vanilla divides zero by zero
+        float delta = duration == 0 ? (elapsed > 0 ? 1.0F : 0.0F) : Mth.clamp(elapsed / duration, 0.0F, 1.0F);
+
+        // Like vanilla, the interpolation of the next keyframe is used
+        switch (this.interpolations[next]) {
+            case INTERPOLATION_LINEAR -> {
+                x[index] = Mth.lerp(delta, this.targets[current * 3], this.targets[next * 3]) * scale;
+                y[index] = Mth.lerp(delta, this.targets[current * 3 + 1], this.targets[next * 3 + 1]) * scale;
+                z[index] = Mth.lerp(delta, this.targets[current * 3 + 2], this.targets[next * 3 + 2]) * scale;
+            }
+            case INTERPOLATION_CATMULLROM -> {
+                int previous = Math.max(start, current - 1);
+                int following = Math.min(end - 1, next + 1);
+                x[index] = this.catmullrom(delta, previous, current, next, following, 0) * scale;
+                y[index] = this.catmullrom(delta, previous, current, next, following, 1) * scale;
+                z[index] = this.catmullrom(delta, previous, current, next, following, 2) * scale;
+            }
+            default -> {
+                Keyframe[] keyframes = this.channels[channel].keyframes();
+                keyframes[next - start].interpolation().apply(VECTOR_CACHE, delta, keyframes, current - start, next - start, scale);
+                x[index] = VECTOR_CACHE.x();
+                y[index] = VECTOR_CACHE.y();
+                z[index] = VECTOR_CACHE.z();
+            }
+        }
+    }
+
+    private void applyTarget(ModelPart part, int channel, float x, float y, float z) {
+        switch (this.channelTargets[channel]) {
+            case TARGET_POSITION -> {
+                part.x += x;
+                part.y += y;
+                part.z += z;
+            }
+            case TARGET_ROTATION -> {
+                part.xRot += x;
+                part.yRot += y;
+                part.zRot += z;
+            }
+            case TARGET_SCALE -> {
+                part.xScale += x;
+                part.yScale += y;
+                part.zScale += z;
+            }
+            default -> {
+                VECTOR_CACHE.set(x, y, z);
+                this.channels[channel].target().apply(part, VECTOR_CACHE);
+            }
+        }
+    }
+
+    /**
+     * @return The first keyframe in {@code [start, end)} whose timestamp is at or after the given time, or {@code end} if there is none
+     */
+    private int findKeyframe(int start, int end, float elapsedSeconds) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (elapsedSeconds <= this.timestamps[mid]) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    private float catmullrom(float delta, int previous, int current, int next, int following, int axis) {
+        return Mth.catmullrom(delta, this.targets[previous * 3 + axis], this.targets[current * 3 + axis], this.targets[next * 3 + axis],
+                this.targets[following * 3 + axis]);
+    }
+}
@@ -32,6 +32,7 @@ import net.minecraft.client.animation.AnimationDefinition;
 import net.minecraft.client.animation.Keyframe;
 
 import java.util.Arrays;
+import java.util.Optional;
 
 public class EntityAnimationCodecHolder {
     public static final Codec<Keyframe> KEYFRAME_CODEC = RecordCodecBuilder.create(instance -> instance.group(
@@ -50,4 +51,13 @@ public class EntityAnimationCodecHolder {
             Codec.BOOL.optionalFieldOf("looping", false).forGetter(AnimationDefinition::looping),
             Codec.unboundedMap(Codec.STRING, ANIMATION_CHANNEL_CODEC.listOf()).fieldOf("boneAnimations").forGetter(AnimationDefinition::boneAnimations)
     ).apply(instance, AnimationDefinition::new));
+
+    public static final Codec<BakeHint> BAKE_HINT_OBJECT_CODEC = RecordCodecBuilder.create(instance -> instance.group(
+            Codec.FLOAT.optionalFieldOf("sampleRate").forGetter(BakeHint::sampleRate)
+    ).apply(instance, BakeHint::new));
+
+    /**
+     * Reads the optional {@code bake} field next to the fields of an {@link AnimationDefinition}.
+     */
+    public static final Codec<Optional<BakeHint>> BAKE_HINT_CODEC = BAKE_HINT_OBJECT_CODEC.optionalFieldOf("bake").codec();
 }
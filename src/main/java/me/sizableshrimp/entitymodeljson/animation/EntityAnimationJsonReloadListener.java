@@ -24,37 +24,306 @@ package me.sizableshrimp.entitymodeljson.animation;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
 import com.mojang.logging.LogUtils;
 import com.mojang.serialization.JsonOps;
+import me.sizableshrimp.entitymodeljson.EntityModelJsonConfig;
+import me.sizableshrimp.entitymodeljson.jfr.EntityAnimationDecodeEvent;
+import net.minecraft.client.animation.AnimationChannel;
 import net.minecraft.client.animation.AnimationDefinition;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.server.packs.resources.Resource;
 import net.minecraft.server.packs.resources.ResourceManager;
-import net.minecraft.server.packs.resources.SimpleJsonResourceReloadListener;
+import net.minecraft.server.packs.resources.SimplePreparableReloadListener;
+import net.minecraft.util.GsonHelper;
 import net.minecraft.util.profiling.ProfilerFiller;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
 
-public class EntityAnimationJsonReloadListener extends SimpleJsonResourceReloadListener {
+public class EntityAnimationJsonReloadListener extends SimplePreparableReloadListener<EntityAnimationJsonReloadListener.Prepared> {
     private static final Logger LOGGER = LogUtils.getLogger();
     private static final Gson GSON = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private static final String DIRECTORY = "animations/entity";
+    private static final String PATH_SUFFIX = ".json";
+    /**
+     * Lists the ids of animations which a pack declares as hot, so that they are decoded during the reload even when decoding lazily.
+     * The file has the form {@code {"animations": ["namespace:path", ...]}}, where ids without a namespace use the namespace of the file.
+     * The lists of all packs are combined.
+     */
+    private static final String WARM_UP_PATH = "animations/warmup.json";
 
-    public EntityAnimationJsonReloadListener() {
-        super(GSON, "animations/entity");
+    @Override
+    protected Prepared prepare(ResourceManager resourceManager, ProfilerFiller profiler) {
+        profiler.push("list");
+        Map<ResourceLocation, Resource> resources = resourceManager.listResources(DIRECTORY, id -> id.getPath().endsWith(PATH_SUFFIX));
+
+        if (EntityModelJsonConfig.CLIENT.lazyAnimations.get()) {
+            profiler.popPush("index");
+            Map<ResourceLocation, LazyAnimation> lazyAnimations = new HashMap<>();
+            resources.forEach((fileLocation, resource) -> {
+                ResourceLocation id = getId(fileLocation);
+                LazyAnimation animation = index(id, fileLocation, resource);
+                if (animation != null)
+                    lazyAnimations.put(id, animation);
+            });
+
+            profiler.popPush("warmup");
+            int warmedUp = 0;
+            for (ResourceLocation id : readWarmUpList(resourceManager)) {
+                LazyAnimation animation = lazyAnimations.get(id);
+                if (animation == null) {
+                    LOGGER.warn("Entity animation {} is listed for warm up but does not exist", id);
+                } else {
+                    animation.get();
+                    warmedUp++;
+                }
+            }
+            profiler.pop();
+
+            LOGGER.info("Indexed {} entity animations for lazy decoding and warmed up {}", lazyAnimations.size(), warmedUp);
+            return new Prepared(null, lazyAnimations);
+        }
+
+        profiler.popPush("decode");
+        Map<ResourceLocation, DecodedAnimation> decodedAnimations = new HashMap<>();
+        resources.forEach((fileLocation, resource) -> {
+            ResourceLocation id = getId(fileLocation);
+            DecodedAnimation decoded = decode(id, fileLocation, resource);
+            if (decoded != null)
+                decodedAnimations.put(id, decoded);
+        });
+
+        if (EntityModelJsonConfig.CLIENT.reduceKeyframes.get()) {
+            profiler.popPush("reduce");
+            int keyframesBefore = 0;
+            int keyframesAfter = 0;
+            for (Map.Entry<ResourceLocation, DecodedAnimation> entry : decodedAnimations.entrySet()) {
+                KeyframeReducer.Result result = reduce(entry.getKey(), entry.getValue().definition());
+                keyframesBefore += result.keyframesBefore();
+                keyframesAfter += result.keyframesAfter();
+                entry.setValue(new DecodedAnimation(result.definition(), entry.getValue().bakeHint()));
+            }
+            LOGGER.info("Reduced keyframes of {} entity animations from {} to {}", decodedAnimations.size(), keyframesBefore, keyframesAfter);
+        }
+
+        profiler.popPush("compile");
+        Map<ResourceLocation, CompiledAnimation> animations = new HashMap<>();
+        decodedAnimations.forEach((id, decoded) -> animations.put(id, compile(id, decoded)));
+        profiler.pop();
+
+        return new Prepared(animations, null);
     }
 
     @Override
-    protected void apply(Map<ResourceLocation, JsonElement> animationJsons, ResourceManager resourceManager, ProfilerFiller profiler) {
-        Map<ResourceLocation, AnimationDefinition> definitions = new HashMap<>();
+    protected void apply(Prepared prepared, ResourceManager resourceManager, ProfilerFiller profiler) {
+        Map<ResourceLocation, LazyAnimation> previousLazyAnimations = EntityAnimations.getLazyAnimations();
+        if (!previousLazyAnimations.isEmpty()) {
+            long untouched = previousLazyAnimations.values().stream().filter(animation -> !animation.isDecoded()).count();
+            LOGGER.info("{} of {} lazily decoded entity animations were never used before this reload", untouched, previousLazyAnimations.size());
+        }
+
+        profiler.push("publish");
+        if (prepared.lazyAnimations() != null) {
+            EntityAnimations.publishLazy(prepared.lazyAnimations());
+        } else {
+            EntityAnimations.publish(prepared.animations());
+        }
+        profiler.pop();
+    }
+
+    /**
+     * Reads the given animation definitions again and swaps only those entries in {@link EntityAnimations}.
+     * Must be called on the main thread after a full reload has completed.
+     *
+     * @param resourceManager The resource manager to read the animation definitions from
+     * @param ids The ids of the animation definitions whose files were changed, added, or removed
+     */
+    public static void reloadAnimations(ResourceManager resourceManager, Collection<ResourceLocation> ids) {
+        if (EntityAnimations.getSnapshot().isLazy()) {
+            // Animations which did not change keep their memoized result, and changed ones are decoded again on first request
+            Map<ResourceLocation, LazyAnimation> lazyAnimations = EntityAnimations.getLazyAnimations();
+            for (ResourceLocation id : ids) {
+                lazyAnimations.remove(id);
+                ResourceLocation fileLocation = new ResourceLocation(id.getNamespace(), DIRECTORY + '/' + id.getPath() + PATH_SUFFIX);
+                resourceManager.getResource(fileLocation)
+                        .map(resource -> index(id, fileLocation, resource))
+                        .ifPresent(animation -> lazyAnimations.put(id, animation));
+            }
+
+            EntityAnimations.publishLazy(lazyAnimations);
+            LOGGER.info("Hot reloaded {} lazily decoded entity animations", ids.size());
+            return;
+        }
+
+        Map<ResourceLocation, CompiledAnimation> animations = EntityAnimations.getAnimations();
+
+        for (ResourceLocation id : ids) {
+            animations.remove(id);
+            ResourceLocation fileLocation = new ResourceLocation(id.getNamespace(), DIRECTORY + '/' + id.getPath() + PATH_SUFFIX);
+            resourceManager.getResource(fileLocation)
+                    .map(resource -> decode(id, fileLocation, resource))
+                    .map(decoded -> EntityModelJsonConfig.CLIENT.reduceKeyframes.get()
+                            ? new DecodedAnimation(reduce(id, decoded.definition()).definition(), decoded.bakeHint())
+                            : decoded)
+                    .ifPresent(decoded -> animations.put(id, compile(id, decoded)));
+        }
+
+        EntityAnimations.publish(animations);
+        LOGGER.info("Hot reloaded {} entity animations", ids.size());
+    }
+
+    private static KeyframeReducer.Result reduce(ResourceLocation id, AnimationDefinition animationDefinition) {
+        EntityModelJsonConfig.Client config = EntityModelJsonConfig.CLIENT;
+        KeyframeReducer.Result result = KeyframeReducer.reduce(animationDefinition, config.keyframeTolerance.get().floatValue(),
+                config.timestampQuantization.get().floatValue(), config.targetQuantization.get().floatValue());
+        LOGGER.debug("Reduced keyframes of entity animation {} from {} to {}", id, result.keyframesBefore(), result.keyframesAfter());
+        return result;
+    }
 
-        for (var entry : animationJsons.entrySet()) {
-            EntityAnimationCodecHolder.ANIMATION_DEFINITION_CODEC.parse(JsonOps.INSTANCE, entry.getValue())
-                    .resultOrPartial(e -> LOGGER.warn("Error while parsing entity animation json with id {} - {}", entry.getKey(), e))
-                    .ifPresent(animationDefinition -> definitions.put(entry.getKey(), animationDefinition));
+    private static CompiledAnimation compile(ResourceLocation id, DecodedAnimation decoded) {
+        CompiledAnimation animation = CompiledAnimation.compile(id, decoded.definition());
+
+        EntityModelJsonConfig.Client config = EntityModelJsonConfig.CLIENT;
+        if (config.bakePoses.get() && decoded.bakeHint().isPresent()) {
+            if (!decoded.definition().looping() || decoded.definition().lengthInSeconds() <= 0) {
+                LOGGER.warn("Entity animation {} has a bake hint but does not loop, so it will be sampled live", id);
+            } else if (animation.usesCustomInterpolation()) {
+                LOGGER.warn("Entity animation {} has a bake hint but uses custom interpolations, so it will be sampled live", id);
+            } else {
+                float sampleRate = decoded.bakeHint().get().sampleRate().filter(rate -> rate > 0).orElse(config.bakeSampleRate.get().floatValue());
+                int budget = config.bakeBudget.get() * 1024;
+                if (!animation.bake(sampleRate, budget))
+                    LOGGER.warn("Baked poses of entity animation {} at {} samples per second would exceed the budget of {} KiB, so it will be sampled live",
+                            id, sampleRate, config.bakeBudget.get());
+            }
+        }
+
+        return animation;
+    }
+
+    private static ResourceLocation getId(ResourceLocation fileLocation) {
+        String filePath = fileLocation.getPath();
+        return new ResourceLocation(fileLocation.getNamespace(), filePath.substring(DIRECTORY.length() + 1, filePath.length() - PATH_SUFFIX.length()));
+    }
+
+    /**
+     * Reads the raw bytes of the file now and defers decoding, reducing, and compiling until the animation is first requested.
+     */
+    @Nullable
+    private static LazyAnimation index(ResourceLocation id, ResourceLocation fileLocation, Resource resource) {
+        byte[] bytes;
+        try (InputStream inputStream = resource.open()) {
+            bytes = inputStream.readAllBytes();
+        } catch (IOException e) {
+            LOGGER.error("Couldn't read data file {} from {}", id, fileLocation, e);
+            return null;
+        }
+
+        String pack = resource.sourcePackId();
+        return new LazyAnimation(id, () -> {
+            EntityAnimationDecodeEvent event = new EntityAnimationDecodeEvent();
+            event.begin();
+            DecodedAnimation decoded = decode(id, fileLocation, pack, bytes, event);
+            if (decoded == null)
+                return null;
+
+            if (EntityModelJsonConfig.CLIENT.reduceKeyframes.get())
+                decoded = new DecodedAnimation(reduce(id, decoded.definition()).definition(), decoded.bakeHint());
+            return compile(id, decoded);
+        });
+    }
+
+    private static Set<ResourceLocation> readWarmUpList(ResourceManager resourceManager) {
+        Set<ResourceLocation> ids = new HashSet<>();
+        for (String namespace : resourceManager.getNamespaces()) {
+            ResourceLocation fileLocation = new ResourceLocation(namespace, WARM_UP_PATH);
+            for (Resource resource : resourceManager.getResourceStack(fileLocation)) {
+                try (Reader reader = resource.openAsReader()) {
+                    JsonArray array = GsonHelper.getAsJsonArray(GsonHelper.parse(reader), "animations");
+                    for (JsonElement element : array) {
+                        String id = GsonHelper.convertToString(element, "animation");
+                        ids.add(id.indexOf(':') == -1 ? new ResourceLocation(namespace, id) : new ResourceLocation(id));
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Couldn't read entity animation warm up list {} from {}", fileLocation, resource.sourcePackId(), e);
+                }
+            }
+        }
+        return ids;
+    }
+
+    @Nullable
+    private static DecodedAnimation decode(ResourceLocation id, ResourceLocation fileLocation, Resource resource) {
+        byte[] bytes;
+        try (InputStream inputStream = resource.open()) {
+            bytes = inputStream.readAllBytes();
+        } catch (IOException e) {
+            LOGGER.error("Couldn't read data file {} from {}", id, fileLocation, e);
+            return null;
+        }
+
+        EntityAnimationDecodeEvent event = new EntityAnimationDecodeEvent();
+        event.begin();
+        return decode(id, fileLocation, resource.sourcePackId(), bytes, event);
+    }
+
+    @Nullable
+    private static DecodedAnimation decode(ResourceLocation id, ResourceLocation fileLocation, String pack, byte[] bytes, EntityAnimationDecodeEvent event) {
+        JsonElement jsonElement;
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8)) {
+            jsonElement = GsonHelper.fromJson(GSON, reader, JsonElement.class);
+        } catch (IllegalArgumentException | IOException | JsonParseException e) {
+            LOGGER.error("Couldn't parse data file {} from {}", id, fileLocation, e);
+            return null;
+        }
+
+        AnimationDefinition animationDefinition = EntityAnimationCodecHolder.ANIMATION_DEFINITION_CODEC.parse(JsonOps.INSTANCE, jsonElement)
+                .resultOrPartial(e -> LOGGER.warn("Error while parsing entity animation json with id {} - {}", id, e))
+                .orElse(null);
+        Optional<BakeHint> bakeHint = EntityAnimationCodecHolder.BAKE_HINT_CODEC.parse(JsonOps.INSTANCE, jsonElement)
+                .resultOrPartial(e -> LOGGER.warn("Error while parsing bake hint of entity animation json with id {} - {}", id, e))
+                .flatMap(Function.identity());
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.id = id.toString();
+            event.pack = pack;
+            event.byteSize = bytes.length;
+            if (animationDefinition != null) {
+                for (List<AnimationChannel> channels : animationDefinition.boneAnimations().values()) {
+                    event.channelCount += channels.size();
+                    for (AnimationChannel channel : channels) {
+                        event.keyframeCount += channel.keyframes().length;
+                    }
+                }
+            }
+            event.commit();
         }
 
-        EntityAnimations.definitions = definitions;
+        return animationDefinition == null ? null : new DecodedAnimation(animationDefinition, bakeHint);
     }
+
+    private record DecodedAnimation(AnimationDefinition definition, Optional<BakeHint> bakeHint) {}
+
+    /**
+     * Either the compiled animations, or the animations to decode lazily.
+     */
+    record Prepared(@Nullable Map<ResourceLocation, CompiledAnimation> animations, @Nullable Map<ResourceLocation, LazyAnimation> lazyAnimations) {}
 }
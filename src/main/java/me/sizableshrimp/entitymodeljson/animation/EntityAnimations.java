@@ -23,26 +23,163 @@
 package me.sizableshrimp.entitymodeljson.animation;
 
 import net.minecraft.client.animation.AnimationDefinition;
+import net.minecraft.client.model.HierarchicalModel;
 import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.entity.AnimationState;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
 
+/**
+ * Holds the loaded entity animations as an immutable snapshot, which reloads replace as a whole.
+ * The snapshot is published through a volatile field, so readers on any thread always see a complete set of animations.
+ * <p>
+ * When animations are decoded lazily, the snapshot holds a {@link LazyAnimation} for each id instead,
+ * which is decoded the first time it is requested and memoized until a reload publishes a new snapshot.
+ */
 public class EntityAnimations {
-    static Map<ResourceLocation, AnimationDefinition> definitions = Map.of();
+    private static volatile Snapshot snapshot = new Snapshot(0, Map.of(), new CompiledAnimation[0], null);
+
+    /**
+     * Replaces all loaded animations and advances the epoch, which makes every {@link AnimationHandle} resolve again.
+     */
+    static synchronized void publish(Map<ResourceLocation, CompiledAnimation> animations) {
+        CompiledAnimation[] array = new CompiledAnimation[animations.size()];
+        Map<ResourceLocation, Integer> indices = new HashMap<>(animations.size());
+        int index = 0;
+        for (Map.Entry<ResourceLocation, CompiledAnimation> entry : animations.entrySet()) {
+            array[index] = entry.getValue();
+            indices.put(entry.getKey(), index);
+            index++;
+        }
+
+        snapshot = new Snapshot(snapshot.epoch() + 1, indices, array, null);
+    }
+
+    /**
+     * Replaces all loaded animations with animations that are decoded on first request, and advances the epoch.
+     */
+    static synchronized void publishLazy(Map<ResourceLocation, LazyAnimation> animations) {
+        LazyAnimation[] array = new LazyAnimation[animations.size()];
+        Map<ResourceLocation, Integer> indices = new HashMap<>(animations.size());
+        int index = 0;
+        for (Map.Entry<ResourceLocation, LazyAnimation> entry : animations.entrySet()) {
+            array[index] = entry.getValue();
+            indices.put(entry.getKey(), index);
+            index++;
+        }
+
+        snapshot = new Snapshot(snapshot.epoch() + 1, indices, new CompiledAnimation[0], array);
+    }
+
+    static Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return A copy of all loaded animations by id; must only be called if the current snapshot is not {@link Snapshot#isLazy() lazy}
+     */
+    static Map<ResourceLocation, CompiledAnimation> getAnimations() {
+        Snapshot snapshot = EntityAnimations.snapshot;
+        Map<ResourceLocation, CompiledAnimation> animations = new HashMap<>(snapshot.indices().size());
+        snapshot.indices().forEach((id, index) -> animations.put(id, snapshot.animations()[index]));
+        return animations;
+    }
+
+    /**
+     * @return A copy of all lazy animations by id, without decoding them; empty if the current snapshot is not {@link Snapshot#isLazy() lazy}
+     */
+    static Map<ResourceLocation, LazyAnimation> getLazyAnimations() {
+        Snapshot snapshot = EntityAnimations.snapshot;
+        if (!snapshot.isLazy())
+            return new HashMap<>();
+
+        Map<ResourceLocation, LazyAnimation> animations = new HashMap<>(snapshot.indices().size());
+        snapshot.indices().forEach((id, index) -> animations.put(id, snapshot.lazyAnimations()[index]));
+        return animations;
+    }
+
+    /**
+     * Creates a handle to the animation with the given id, which does not need to be loaded yet.
+     * Models should create their handles once and keep them.
+     */
+    @NotNull
+    public static AnimationHandle getHandle(ResourceLocation id) {
+        return new AnimationHandle(id);
+    }
 
     @NotNull
     public static Optional<AnimationDefinition> getDefinition(ResourceLocation id) {
-        return Optional.ofNullable(definitions.get(id));
+        return getCompiled(id).map(CompiledAnimation::getDefinition);
     }
 
     @NotNull
     public static AnimationDefinition getDefinitionOrThrow(ResourceLocation id) {
-        AnimationDefinition animationDefinition = definitions.get(id);
-        if (animationDefinition == null)
-            throw new IllegalArgumentException("Missing entity animation definition with id " + id);
+        return getCompiledOrThrow(id).getDefinition();
+    }
+
+    @NotNull
+    public static Optional<CompiledAnimation> getCompiled(ResourceLocation id) {
+        Snapshot snapshot = EntityAnimations.snapshot;
+        int index = snapshot.indexOf(id);
+        // A lazy animation which failed to decode is treated as missing
+        return index < 0 ? Optional.empty() : Optional.ofNullable(snapshot.get(index));
+    }
+
+    @NotNull
+    public static CompiledAnimation getCompiledOrThrow(ResourceLocation id) {
+        return getCompiled(id).orElseThrow(() -> new IllegalArgumentException("Missing entity animation definition with id " + id));
+    }
+
+    /**
+     * Updates the animation state and applies the animation to the model if the state is started,
+     * equivalent to {@link HierarchicalModel#animate(AnimationState, AnimationDefinition, float, float)} without allocating.
+     * Must be called on the render thread.
+     *
+     * @param model The model to animate
+     * @param state The animation state of the entity
+     * @param animation The compiled animation to apply
+     * @param ageInTicks The age of the entity in ticks, including the partial tick
+     * @param speed The speed multiplier of the animation
+     */
+    public static void animate(HierarchicalModel<?> model, AnimationState state, CompiledAnimation animation, float ageInTicks, float speed) {
+        state.updateTime(ageInTicks, speed);
+        if (state.isStarted())
+            animation.animate(model, state.getAccumulatedTime(), 1.0F);
+    }
+
+    /**
+     * Same as {@link #animate(HierarchicalModel, AnimationState, CompiledAnimation, float, float)},
+     * but looks up the animation by id so that hot reloaded animations are picked up.
+     */
+    public static void animate(HierarchicalModel<?> model, AnimationState state, ResourceLocation id, float ageInTicks, float speed) {
+        animate(model, state, getCompiledOrThrow(id), ageInTicks, speed);
+    }
+
+    /**
+     * @param epoch Incremented every time animations are published
+     * @param indices The index of every loaded animation in {@code animations}
+     * @param animations The loaded animations, densely packed; empty if the snapshot is lazy
+     * @param lazyAnimations The animations to decode on first request, densely packed, or null if the snapshot is not lazy
+     */
+    record Snapshot(int epoch, Map<ResourceLocation, Integer> indices, CompiledAnimation[] animations, @Nullable LazyAnimation[] lazyAnimations) {
+        int indexOf(ResourceLocation id) {
+            return this.indices.getOrDefault(id, -1);
+        }
+
+        /**
+         * @return The animation at the given index, decoding it first if the snapshot is lazy, or null if it failed to decode
+         */
+        @Nullable
+        CompiledAnimation get(int index) {
+            return this.lazyAnimations == null ? this.animations[index] : this.lazyAnimations[index].get();
+        }
 
-        return animationDefinition;
+        boolean isLazy() {
+            return this.lazyAnimations != null;
+        }
     }
 }
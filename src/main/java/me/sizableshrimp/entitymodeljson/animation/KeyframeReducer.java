@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import com.mojang.math.Vector3f;
+import net.minecraft.client.animation.AnimationChannel;
+import net.minecraft.client.animation.AnimationDefinition;
+import net.minecraft.client.animation.Keyframe;
+import net.minecraft.util.Mth;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Removes keyframes from animation definitions which can be reconstructed from their neighbors within an error tolerance,
+ * such as keyframes in the middle of collinear linear segments and repeated targets.
+ * <p>
+ * Timestamps and targets can optionally be quantized to a fixed step first, which turns nearly repeated targets into exactly repeated ones.
+ * Quantized timestamps stay strictly increasing and are never moved past the length of the animation.
+ * Only keyframes surrounded by linear interpolations are removed, since catmull-rom and custom interpolations
+ * use the keyframes around a segment as control points. The first and last keyframe of each channel are always kept.
+ */
+public class KeyframeReducer {
+    /**
+     * @param tolerance The maximum error of any target component at the timestamp of a removed keyframe
+     * @param timestampStep The step in seconds that timestamps are rounded to, or {@code 0} to keep them as is
+     * @param targetStep The step that target components are rounded to, or {@code 0} to keep them as is
+     * @return The reduced animation definition, along with the number of keyframes before and after reduction
+     */
+    public static Result reduce(AnimationDefinition definition, float tolerance, float timestampStep, float targetStep) {
+        Map<String, List<AnimationChannel>> boneAnimations = new LinkedHashMap<>();
+        int before = 0;
+        int after = 0;
+
+        for (Map.Entry<String, List<AnimationChannel>> entry : definition.boneAnimations().entrySet()) {
+            List<AnimationChannel> channels = new ArrayList<>(entry.getValue().size());
+            for (AnimationChannel channel : entry.getValue()) {
+                Keyframe[] keyframes = quantize(channel.keyframes(), definition.lengthInSeconds(), timestampStep, targetStep);
+                Keyframe[] reduced = reduce(keyframes, tolerance);
+                before += channel.keyframes().length;
+                after += reduced.length;
+                channels.add(new AnimationChannel(channel.target(), reduced));
+            }
+            boneAnimations.put(entry.getKey(), channels);
+        }
+
+        return new Result(new AnimationDefinition(definition.lengthInSeconds(), definition.looping(), boneAnimations), before, after);
+    }
+
+    private static Keyframe[] quantize(Keyframe[] keyframes, float lengthInSeconds, float timestampStep, float targetStep) {
+        if (timestampStep <= 0 && targetStep <= 0)
+            return keyframes;
+
+        List<Keyframe> quantized = new ArrayList<>(keyframes.length);
+        for (int i = 0; i < keyframes.length; i++) {
+            Keyframe keyframe = keyframes[i];
+            float timestamp = quantize(keyframe.timestamp(), timestampStep);
+            // Rounding must not move a keyframe past the end of the animation, which looping animations never reach,
+            // and keyframes which already are after the end are not moved any further
+            float end = Math.max(keyframe.timestamp(), lengthInSeconds);
+            if (timestamp > end)
+                timestamp = end;
+            // Timestamps must stay strictly increasing, since keyframes are found with a binary search over them
+            if (timestampStep > 0 && !quantized.isEmpty()) {
+                float prevTimestamp = quantized.get(quantized.size() - 1).timestamp();
+                if (timestamp <= prevTimestamp) {
+                    // A keyframe which collapses onto the previous one is dropped, except for the last one, which keeps the end of the channel.
+                    // It keeps its original timestamp if that is still after the previous keyframe, and otherwise replaces the keyframes it collapses onto.
+                    if (i < keyframes.length - 1)
+                        continue;
+                    if (keyframe.timestamp() > prevTimestamp) {
+                        timestamp = keyframe.timestamp();
+                    } else {
+                        while (!quantized.isEmpty() && quantized.get(quantized.size() - 1).timestamp() >= timestamp) {
+                            quantized.remove(quantized.size() - 1);
+                        }
+                    }
+                }
+            }
+            Vector3f target = keyframe.target();
+            quantized.add(new Keyframe(timestamp, new Vector3f(quantize(target.x(), targetStep), quantize(target.y(), targetStep), quantize(target.z(), targetStep)),
+                    keyframe.interpolation()));
+        }
+
+        return quantized.toArray(Keyframe[]::new);
+    }
+
+    private static float quantize(float value, float step) {
+        return step <= 0 ? value : Math.round(value / step) * step;
+    }
+
+    private static Keyframe[] reduce(Keyframe[] keyframes, float tolerance) {
+        if (keyframes.length <= 2)
+            return keyframes;
+
+        List<Keyframe> kept = new ArrayList<>(keyframes.length);
+        kept.add(keyframes[0]);
+        int anchor = 0;
+        for (int i = 1; i < keyframes.length - 1; i++) {
+            // Keyframe i can be dropped if the line from the anchor to the next keyframe reconstructs every keyframe between them
+            if (!isRemovable(keyframes, i) || !isReconstructable(keyframes, anchor, i + 1, tolerance)) {
+                kept.add(keyframes[i]);
+                anchor = i;
+            }
+        }
+        kept.add(keyframes[keyframes.length - 1]);
+
+        return kept.size() == keyframes.length ? keyframes : kept.toArray(Keyframe[]::new);
+    }
+
+    /**
+     * A keyframe can only be removed if no interpolation depending on it is anything other than linear.
+     * The interpolation of a keyframe is used for the segment ending at it, and catmull-rom segments also use the keyframes around them.
+     */
+    private static boolean isRemovable(Keyframe[] keyframes, int idx) {
+        for (int i = Math.max(1, idx - 1); i <= Math.min(keyframes.length - 1, idx + 2); i++) {
+            if (keyframes[i].interpolation() != AnimationChannel.Interpolations.LINEAR)
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isReconstructable(Keyframe[] keyframes, int start, int end, float tolerance) {
+        Keyframe startKeyframe = keyframes[start];
+        Keyframe endKeyframe = keyframes[end];
+        float duration = endKeyframe.timestamp() - startKeyframe.timestamp();
+        if (duration <= 0)
+            return false;
+
+        for (int i = start + 1; i < end; i++) {
+            float delta = (keyframes[i].timestamp() - startKeyframe.timestamp()) / duration;
+            Vector3f target = keyframes[i].target();
+            if (Math.abs(Mth.lerp(delta, startKeyframe.target().x(), endKeyframe.target().x()) - target.x()) > tolerance
+                    || Math.abs(Mth.lerp(delta, startKeyframe.target().y(), endKeyframe.target().y()) - target.y()) > tolerance
+                    || Math.abs(Mth.lerp(delta, startKeyframe.target().z(), endKeyframe.target().z()) - target.z()) > tolerance)
+                return false;
+        }
+        return true;
+    }
+
+    public record Result(AnimationDefinition definition, int keyframesBefore, int keyframesAfter) {}
+}
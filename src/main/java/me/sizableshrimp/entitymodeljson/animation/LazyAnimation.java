@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import com.mojang.logging.LogUtils;
+import net.minecraft.resources.ResourceLocation;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+
+import java.util.function.Supplier;
+
+/**
+ * An entity animation which is only decoded and compiled the first time it is requested.
+ * The result, including a failed decode, is memoized for as long as the snapshot that holds this animation is published.
+ */
+final class LazyAnimation {
+    private static final Logger LOGGER = LogUtils.getLogger();
+    private final ResourceLocation id;
+    @Nullable
+    private Supplier<CompiledAnimation> decoder;
+    @Nullable
+    private CompiledAnimation animation;
+    private volatile boolean decoded;
+
+    /**
+     * @param decoder Decodes and compiles the animation, returning null if it could not be decoded; called at most once
+     */
+    LazyAnimation(ResourceLocation id, Supplier<CompiledAnimation> decoder) {
+        this.id = id;
+        this.decoder = decoder;
+    }
+
+    ResourceLocation getId() {
+        return this.id;
+    }
+
+    boolean isDecoded() {
+        return this.decoded;
+    }
+
+    /**
+     * @return The compiled animation, or null if it could not be decoded
+     */
+    @Nullable
+    CompiledAnimation get() {
+        // The volatile read of decoded makes the plain write of animation visible
+        if (this.decoded)
+            return this.animation;
+
+        synchronized (this) {
+            if (!this.decoded) {
+                try {
+                    this.animation = this.decoder.get();
+                } catch (RuntimeException e) {
+                    // Memoized like a parse failure, so that a broken file is not decoded again on every frame
+                    LOGGER.error("Couldn't decode entity animation {}", this.id, e);
+                    this.animation = null;
+                }
+                // The decoder holds on to the raw bytes of the file, which are no longer needed
+                this.decoder = null;
+                this.decoded = true;
+            }
+            return this.animation;
+        }
+    }
+}
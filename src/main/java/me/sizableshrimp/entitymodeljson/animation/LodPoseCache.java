@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import java.util.Arrays;
+
+/**
+ * Sampled poses of one {@link BoundAnimation} at the update times of the {@link AnimationLod level of detail policy}, kept across frames.
+ * An entity in a band with an update interval keeps hitting the same pose until its animation time crosses the next interval boundary,
+ * so each pose is sampled once per boundary instead of once per frame.
+ * <p>
+ * Uses the same layout and open addressing table as {@link PoseBuffer}. The first lookup in a new frame frees every slot
+ * which was not used during the previous frame and rebuilds the table from the remaining slots, so lookups stay constant time.
+ * Entities which started their animation at different times rarely share an update time, so the number of slots in use
+ * grows with the number of entities in reduced bands. It is capped at {@value #MAX_SLOTS}, after which new poses are not cached.
+ */
+final class LodPoseCache {
+    /**
+     * Returned by {@link #findOrAdd(long, int)} when every slot is in use, in which case the caller has to sample the pose without caching it.
+     */
+    static final int NOT_CACHED = Integer.MIN_VALUE;
+    private static final int INITIAL_SLOTS = 4;
+    private static final int MAX_SLOTS = 256;
+    private final int channelCount;
+    private int frame = -1;
+    private int slotCount;
+    private long[] slotTimes = new long[INITIAL_SLOTS];
+    private int[] slotFrames = new int[INITIAL_SLOTS];
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeCount;
+    // Holds slot + 1, or 0 for an empty entry; always at least twice as large as the slot capacity
+    private int[] table = new int[INITIAL_SLOTS * 2];
+    float[] x;
+    float[] y;
+    float[] z;
+
+    LodPoseCache(int channelCount) {
+        this.channelCount = channelCount;
+        this.x = new float[INITIAL_SLOTS * channelCount];
+        this.y = new float[INITIAL_SLOTS * channelCount];
+        this.z = new float[INITIAL_SLOTS * channelCount];
+    }
+
+    /**
+     * @param time The update time of the pose
+     * @param frame The current frame, as given by {@link PoseBatching#getFrame()}
+     * @return The slot already holding the pose of this time, {@code -1 - slot} for a new slot which must be sampled by the caller,
+     * or {@link #NOT_CACHED} if every slot is in use
+     */
+    int findOrAdd(long time, int frame) {
+        if (this.frame != frame)
+            this.evict(frame);
+
+        int idx = this.find(time);
+        if (this.table[idx] != 0) {
+            int slot = this.table[idx] - 1;
+            this.slotFrames[slot] = frame;
+            return slot;
+        }
+
+        int slot;
+        if (this.freeCount > 0) {
+            slot = this.freeSlots[--this.freeCount];
+        } else if (this.slotCount < this.slotTimes.length) {
+            slot = this.slotCount++;
+        } else if (this.slotCount < MAX_SLOTS) {
+            this.grow();
+            idx = this.find(time);
+            slot = this.slotCount++;
+        } else {
+            return NOT_CACHED;
+        }
+
+        this.slotTimes[slot] = time;
+        this.slotFrames[slot] = frame;
+        this.table[idx] = slot + 1;
+        return -1 - slot;
+    }
+
+    /**
+     * Frees every slot which was not used during the previous frame, and rebuilds the table from the remaining slots.
+     */
+    private void evict(int frame) {
+        this.frame = frame;
+        this.freeCount = 0;
+        Arrays.fill(this.table, 0);
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            if (frame - this.slotFrames[slot] > 1) {
+                this.freeSlots[this.freeCount++] = slot;
+            } else {
+                this.table[this.find(this.slotTimes[slot])] = slot + 1;
+            }
+        }
+    }
+
+    /**
+     * @return The index of the table entry holding the given time, or of the empty entry where it should be inserted
+     */
+    private int find(long time) {
+        int mask = this.table.length - 1;
+        int idx = Long.hashCode(time * 0x9E3779B97F4A7C15L) & mask;
+        while (this.table[idx] != 0 && this.slotTimes[this.table[idx] - 1] != time) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    /**
+     * Only called when no slot is free, so every slot is in the table.
+     */
+    private void grow() {
+        int slots = Math.min(this.slotTimes.length * 2, MAX_SLOTS);
+        this.slotTimes = Arrays.copyOf(this.slotTimes, slots);
+        this.slotFrames = Arrays.copyOf(this.slotFrames, slots);
+        this.freeSlots = new int[slots];
+        this.x = Arrays.copyOf(this.x, slots * this.channelCount);
+        this.y = Arrays.copyOf(this.y, slots * this.channelCount);
+        this.z = Arrays.copyOf(this.z, slots * this.channelCount);
+
+        this.table = new int[slots * 2];
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            this.table[this.find(this.slotTimes[slot])] = slot + 1;
+        }
+    }
+}
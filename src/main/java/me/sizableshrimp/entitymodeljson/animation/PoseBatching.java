@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import me.sizableshrimp.entitymodeljson.EntityModelJsonConfig;
+import net.minecraftforge.event.TickEvent;
+
+/**
+ * Tracks the render frame and the pose batching settings, so that all entities playing the same {@link CompiledAnimation}
+ * at the same quantized time during a frame share one sampled pose.
+ * The settings are read from the config once per frame.
+ */
+public class PoseBatching {
+    private static int frame;
+    private static boolean enabled;
+    private static long quantizationMillis;
+
+    public static void onRenderTick(TickEvent.RenderTickEvent event) {
+        if (event.phase != TickEvent.Phase.START)
+            return;
+
+        frame++;
+        enabled = EntityModelJsonConfig.CLIENT.batchPoses.get();
+        quantizationMillis = EntityModelJsonConfig.CLIENT.poseQuantization.get();
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static int getFrame() {
+        return frame;
+    }
+
+    /**
+     * Rounds the accumulated time of an animation down to the configured quantization step.
+     */
+    static long quantize(long accumulatedTime) {
+        return quantizationMillis <= 1 ? accumulatedTime : accumulatedTime - Math.floorMod(accumulatedTime, quantizationMillis);
+    }
+}
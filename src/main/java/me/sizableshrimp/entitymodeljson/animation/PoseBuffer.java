@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.animation;
+
+import java.util.Arrays;
+
+/**
+ * A structure-of-arrays buffer of sampled poses of one {@link CompiledAnimation}, with one slot per distinct quantized time in the current frame.
+ * The sample of channel {@code c} in slot {@code s} is stored at index {@code s * channelCount + c} of {@link #x}, {@link #y}, and {@link #z}.
+ * <p>
+ * Slots are looked up through an open addressing hash table, which is cleared lazily the first time the buffer is used in a new frame.
+ * The arrays only grow, so a steady number of distinct times per frame does not allocate.
+ */
+final class PoseBuffer {
+    private static final int INITIAL_SLOTS = 4;
+    private final int channelCount;
+    private int frame = -1;
+    private int slotCount;
+    private long[] slotTimes = new long[INITIAL_SLOTS];
+    // Holds slot + 1, or 0 for an empty entry; always at least twice as large as the slot capacity
+    private int[] table = new int[INITIAL_SLOTS * 2];
+    float[] x;
+    float[] y;
+    float[] z;
+
+    PoseBuffer(int channelCount) {
+        this.channelCount = channelCount;
+        this.x = new float[INITIAL_SLOTS * channelCount];
+        this.y = new float[INITIAL_SLOTS * channelCount];
+        this.z = new float[INITIAL_SLOTS * channelCount];
+    }
+
+    /**
+     * @param time The quantized time of the pose
+     * @param frame The current frame, as given by {@link PoseBatching#getFrame()}
+     * @return The slot already holding the pose of this time, or {@code -1 - slot} for a new slot which must be sampled by the caller
+     */
+    int findOrAdd(long time, int frame) {
+        if (this.frame != frame) {
+            this.frame = frame;
+            this.slotCount = 0;
+            Arrays.fill(this.table, 0);
+        }
+
+        int idx = this.find(time);
+        if (this.table[idx] != 0)
+            return this.table[idx] - 1;
+
+        if (this.slotCount == this.slotTimes.length) {
+            this.grow();
+            idx = this.find(time);
+        }
+
+        int slot = this.slotCount++;
+        this.slotTimes[slot] = time;
+        this.table[idx] = slot + 1;
+        return -1 - slot;
+    }
+
+    /**
+     * @return The index of the table entry holding the given time, or of the empty entry where it should be inserted
+     */
+    private int find(long time) {
+        int mask = this.table.length - 1;
+        int idx = Long.hashCode(time * 0x9E3779B97F4A7C15L) & mask;
+        while (this.table[idx] != 0 && this.slotTimes[this.table[idx] - 1] != time) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private void grow() {
+        int slots = this.slotTimes.length * 2;
+        this.slotTimes = Arrays.copyOf(this.slotTimes, slots);
+        this.x = Arrays.copyOf(this.x, slots * this.channelCount);
+        this.y = Arrays.copyOf(this.y, slots * this.channelCount);
+        this.z = Arrays.copyOf(this.z, slots * this.channelCount);
+
+        this.table = new int[slots * 2];
+        for (int slot = 0; slot < this.slotCount; slot++) {
+            this.table[this.find(this.slotTimes[slot])] = slot + 1;
+        }
+    }
+}
@@ -40,6 +40,8 @@ public class EMJCommands {
 
         LiteralArgumentBuilder<CommandSourceStack> rootBuilder = Commands.literal("entitymodeljson");
         DumpCommand.register(rootBuilder);
+        LodCommand.register(rootBuilder);
+        LazyCommand.register(rootBuilder);
 
         LiteralCommandNode<CommandSourceStack> rootNode = dispatcher.register(rootBuilder);
         dispatcher.register(Commands.literal("emj").redirect(rootNode));
@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2022 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+
+package me.sizableshrimp.entitymodeljson.command;
+
+import com.mojang.brigadier.Command;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import me.sizableshrimp.entitymodeljson.EntityModelJsonReloadListener;
+import me.sizableshrimp.entitymodeljson.EntityModelPipeline;
+import net.minecraft.commands.CommandSourceStack;
+import net.minecraft.commands.Commands;
+import net.minecraft.network.chat.Component;
+
+public class LazyCommand {
+    public static void register(LiteralArgumentBuilder<CommandSourceStack> rootBuilder) {
+        rootBuilder.then(Commands.literal("lazy")
+                .executes(ctx -> {
+                    CommandSourceStack source = ctx.getSource();
+                    EntityModelPipeline.LazyUsage usage = EntityModelJsonReloadListener.getLazyUsage();
+                    if (usage.total() == 0) {
+                        source.sendSuccess(Component.translatable("command.entitymodeljson.lazy.off"), false);
+                    } else {
+                        source.sendSuccess(Component.translatable("command.entitymodeljson.lazy.usage", usage.resolved(), usage.total(), usage.untouched()), false);
+                    }
+
+                    return Command.SINGLE_SUCCESS;
+                }));
+    }
+}
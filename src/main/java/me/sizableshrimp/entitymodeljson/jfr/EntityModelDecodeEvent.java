@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2021 SizableShrimp
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package me.sizableshrimp.entitymodeljson.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Recorded for every entity model file that is parsed and decoded during a reload.
+ * The duration of the event covers parsing and decoding after the file was read,
+ * or only the model cache lookup when the decoded layer definition was found in the model cache.
+ */
+@Name(EntityModelDecodeEvent.NAME)
+@Label("Entity Model Decode")
+@Description("Parsing and decoding of a single entity model file")
+@Category({"Entity Model JSON", "Reload"})
+@StackTrace(false)
+public class EntityModelDecodeEvent extends Event {
+    public static final String NAME = "entitymodeljson.EntityModelDecode";
+
+    @Label("Location")
+    @Description("The model layer path of the decoded file, as namespace:layer/model")
+    public String location;
+
+    @Label("Pack")
+    @Description("The id of the resource pack which the file was read from")
+    public String pack;
+
+    @Label("Byte Size")
+    @DataAmount
+    public long byteSize;
+
+    @Label("Cube Count")
+    @Description("The number of cubes in the decoded file, before any inheritance is applied")
+    public int cubeCount;
+}
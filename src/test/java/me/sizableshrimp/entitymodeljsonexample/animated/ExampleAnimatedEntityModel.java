@@ -22,9 +22,10 @@
 
 package me.sizableshrimp.entitymodeljsonexample.animated;
 
+import me.sizableshrimp.entitymodeljson.animation.AnimationHandle;
+import me.sizableshrimp.entitymodeljson.animation.BoundAnimation;
 import me.sizableshrimp.entitymodeljson.animation.EntityAnimations;
 import me.sizableshrimp.entitymodeljsonexample.EntityModelJsonExampleMod;
-import net.minecraft.client.animation.AnimationDefinition;
 import net.minecraft.client.animation.definitions.WardenAnimation;
 import net.minecraft.client.model.HierarchicalModel;
 import net.minecraft.client.model.geom.ModelPart;
@@ -36,14 +37,16 @@ public class ExampleAnimatedEntityModel extends HierarchicalModel<Warden> {
     // All JSON entity animation definitions reside in assets/modid/animations/entity.
     // This resource location with path "warden/attack" translates to assets/entitymodeljsonexample/animations/entity/warden/attack.json
     private static final ResourceLocation ATTACK_LOCATION = new ResourceLocation(EntityModelJsonExampleMod.MODID, "warden/attack");
+    // A handle stays valid across resource reloads and looks up the current animation without hashing the resource location
+    private static final AnimationHandle ATTACK_HANDLE = EntityAnimations.getHandle(ATTACK_LOCATION);
     private final ModelPart root;
-    private final AnimationDefinition attackAnimation;
+    private final BoundAnimation attackAnimation;
 
     public ExampleAnimatedEntityModel(ModelPart root) {
         super(RenderType::entityCutoutNoCull);
         this.root = root;
-        // Query the animation definition from the loaded animations
-        this.attackAnimation = EntityAnimations.getDefinitionOrThrow(ATTACK_LOCATION);
+        // Resolve the bones of the animation against this model once, and again only when the animation is reloaded
+        this.attackAnimation = ATTACK_HANDLE.bind(this);
     }
 
     @Override
@@ -51,12 +54,12 @@ public class ExampleAnimatedEntityModel extends HierarchicalModel<Warden> {
         this.root().getAllParts().forEach(ModelPart::resetPose);
 
         // Keep playing the attack animation to demo it
-        if (warden.attackAnimationState.getAccumulatedTime() >= this.attackAnimation.lengthInSeconds() * 1000L) {
+        if (warden.attackAnimationState.getAccumulatedTime() >= this.attackAnimation.getAnimation().lengthInSeconds() * 1000L) {
             warden.attackAnimationState.start(warden.tickCount);
         }
 
         // Animate the attack animation; this should always be run and will just do nothing if the animation is not playing
-        this.animate(warden.attackAnimationState, this.attackAnimation, ageInTicks);
+        this.attackAnimation.animate(warden, warden.attackAnimationState, ageInTicks, 1.0F);
     }
 
     @Override